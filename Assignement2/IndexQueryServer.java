@@ -0,0 +1,414 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 在本地对InvertedIndexer的二进制输出（-D invertedindex.binary=true）进行查询。
+ * <p>
+ * 启动时把每个part-r-NNNNN.idx和.post文件mmap到内存，之后每个查询只做词典二分查找和posting list归并，
+ * 不需要扫描全部数据，也不需要提交MapReduce作业。查询从标准输入逐行读取：
+ * <ul>
+ * <li>单个词：<code>term</code></li>
+ * <li>与查询：<code>term1 AND term2 ...</code>（不写运算符时默认为AND）</li>
+ * <li>或查询：<code>term1 OR term2 ...</code></li>
+ * </ul>
+ * 每个文档的得分为各查询词的 词频/该词的平均词频 之和，输出得分最高的k个文档
+ * <p>
+ * Usage: <code>IndexQueryServer &lt;index dir&gt; [k]</code>
+ */
+public class IndexQueryServer {
+  private static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+  private Segment[] segments;
+  private String[] docs;
+
+  public IndexQueryServer(File dir) throws IOException {
+    docs = readDocs(new File(dir, InvertedIndexer.DOCS_FILE));
+    List<Segment> parts = new ArrayList<Segment>();
+    for (int part = 0;; part++) {
+      String name = String.format("part-r-%05d", part);
+      File idx = new File(dir, name + PostingListOutputFormat.INDEX_EXTENSION);
+      File post = new File(dir, name + PostingListOutputFormat.POSTINGS_EXTENSION);
+      if (!idx.exists())
+        break;
+      parts.add(new Segment(idx, post));
+    }
+    if (parts.isEmpty())
+      throw new IOException("no index segments in " + dir);
+    segments = parts.toArray(new Segment[parts.size()]);
+  }
+
+  private static String[] readDocs(File file) throws IOException {
+    List<String> names = new ArrayList<String>();
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = br.readLine()) != null)
+        names.add(line);
+    } finally {
+      br.close();
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  public String docName(int docId) {
+    return docs[docId];
+  }
+
+  /** 按TermPartitioner的分区规则找到term所在的segment，返回它的posting list游标，term不存在时返回null **/
+  public PostingCursor lookup(String term) {
+    byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+    int hash = WritableComparator.hashBytes(bytes, bytes.length);
+    Segment segment = segments[(hash & Integer.MAX_VALUE) % segments.length];
+    int entry = segment.find(bytes);
+    return entry < 0 ? null : segment.cursor(entry);
+  }
+
+  /** 执行一个查询，返回按得分从高到低排列的最多k个结果 **/
+  public List<ScoredDoc> search(String query, int k) {
+    StringTokenizer itr = new StringTokenizer(query);
+    List<PostingCursor> cursors = new ArrayList<PostingCursor>();
+    String operator = null;
+    boolean missing = false;
+    while (itr.hasMoreTokens()) {
+      String token = itr.nextToken();
+      if (token.equals("AND") || token.equals("OR")) {
+        if (operator != null && !operator.equals(token))
+          throw new IllegalArgumentException("mixing AND and OR is not supported: " + query);
+        operator = token;
+        continue;
+      }
+      PostingCursor cursor = lookup(token);
+      if (cursor == null)
+        missing = true;
+      else
+        cursors.add(cursor);
+    }
+    TopK top = new TopK(k);
+    if ("OR".equals(operator))
+      union(cursors, top);
+    else if (!missing)
+      intersect(cursors, top);
+    return top.sorted();
+  }
+
+  /** 从文档数最少的词开始，依次用advance()借助跳表让其余游标追上，求所有词的交集 **/
+  private static void intersect(List<PostingCursor> list, TopK top) {
+    if (list.isEmpty())
+      return;
+    PostingCursor[] cursors = list.toArray(new PostingCursor[list.size()]);
+    Arrays.sort(cursors, new Comparator<PostingCursor>() {
+      public int compare(PostingCursor a, PostingCursor b) {
+        return a.size() < b.size() ? -1 : (a.size() == b.size() ? 0 : 1);
+      }
+    });
+    PostingCursor lead = cursors[0];
+    if (!lead.next())
+      return;
+    int target = lead.doc();
+    outer: while (true) {
+      double score = lead.score();
+      for (int i = 1; i < cursors.length; i++) {
+        if (!cursors[i].advance(target))
+          return;
+        if (cursors[i].doc() > target) {
+          if (!lead.advance(cursors[i].doc()))
+            return;
+          target = lead.doc();
+          continue outer;
+        }
+        score += cursors[i].score();
+      }
+      top.offer(target, score);
+      if (!lead.next())
+        return;
+      target = lead.doc();
+    }
+  }
+
+  /** 每次取所有游标中最小的docId，累加停在该文档上的各词得分 **/
+  private static void union(List<PostingCursor> cursors, TopK top) {
+    for (PostingCursor cursor : cursors)
+      cursor.next();
+    while (true) {
+      int min = NO_MORE_DOCS;
+      for (PostingCursor cursor : cursors)
+        min = Math.min(min, cursor.doc());
+      if (min == NO_MORE_DOCS)
+        return;
+      double score = 0;
+      for (PostingCursor cursor : cursors) {
+        if (cursor.doc() == min) {
+          score += cursor.score();
+          cursor.next();
+        }
+      }
+      top.offer(min, score);
+    }
+  }
+
+  /** 一个mmap的索引分片：定长的.idx词典和.post posting文件 **/
+  public static class Segment {
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer postings;
+    private final int terms;
+
+    public Segment(File idx, File post) throws IOException {
+      index = map(idx);
+      postings = map(post);
+      terms = index.capacity() / PostingListOutputFormat.INDEX_RECORD_SIZE;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        if (channel.size() > Integer.MAX_VALUE)
+          throw new IOException(file + " is larger than 2GB, use more reducers");
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        raf.close();
+      }
+    }
+
+    /** 在词典中二分查找term，返回词典下标，不存在时返回负数 **/
+    public int find(byte[] term) {
+      int low = 0;
+      int high = terms - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compareTerm(offset(mid), term);
+        if (cmp < 0)
+          low = mid + 1;
+        else if (cmp > 0)
+          high = mid - 1;
+        else
+          return mid;
+      }
+      return -(low + 1);
+    }
+
+    /** 与Text的比较规则相同：按无符号字节逐个比较，前缀相同时短的在前 **/
+    private int compareTerm(int offset, byte[] term) {
+      int length = (int) readVLong(postings, offset);
+      int start = offset + WritableUtils.decodeVIntSize(postings.get(offset));
+      int n = Math.min(length, term.length);
+      for (int i = 0; i < n; i++) {
+        int a = postings.get(start + i) & 0xff;
+        int b = term[i] & 0xff;
+        if (a != b)
+          return a - b;
+      }
+      return length - term.length;
+    }
+
+    private int offset(int entry) {
+      return (int) index.getLong(entry * PostingListOutputFormat.INDEX_RECORD_SIZE);
+    }
+
+    public int docFreq(int entry) {
+      return index.getInt(entry * PostingListOutputFormat.INDEX_RECORD_SIZE + 8);
+    }
+
+    public double average(int entry) {
+      return index.getDouble(entry * PostingListOutputFormat.INDEX_RECORD_SIZE + 12);
+    }
+
+    public PostingCursor cursor(int entry) {
+      int offset = offset(entry);
+      int length = (int) readVLong(postings, offset);
+      offset += WritableUtils.decodeVIntSize(postings.get(offset)) + length;
+      return new PostingCursor(postings, offset, average(entry));
+    }
+  }
+
+  /** 在mmap的缓冲区上按PostingListWritable的格式逐个解码posting，支持借助跳表的advance() **/
+  public static class PostingCursor {
+    private final ByteBuffer buf;
+    private final double average;
+    private final int size;
+    private final int[] skipDocs;
+    private final int[] skipOffsets;
+    private final int start;
+    private int nextSkip = 0;
+    private int pos;
+    private int index = -1;
+    private int doc = 0; // 尚未开始时为差值解码的基准0
+    private int freq = 0;
+
+    PostingCursor(ByteBuffer buf, int offset, double average) {
+      this.buf = buf;
+      this.average = average;
+      pos = offset;
+      size = readVInt();
+      int skips = readVInt();
+      skipDocs = new int[skips];
+      skipOffsets = new int[skips];
+      int lastDoc = 0;
+      int lastOffset = 0;
+      for (int k = 0; k < skips; k++) {
+        lastDoc += readVInt();
+        lastOffset += readVInt();
+        skipDocs[k] = lastDoc;
+        skipOffsets[k] = lastOffset;
+      }
+      start = pos;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int doc() {
+      return doc;
+    }
+
+    public int freq() {
+      return freq;
+    }
+
+    public double score() {
+      return freq / average;
+    }
+
+    public boolean next() {
+      if (++index >= size) {
+        index = size;
+        doc = NO_MORE_DOCS;
+        return false;
+      }
+      doc += readVInt();
+      freq = readVInt();
+      return true;
+    }
+
+    /** 移动到第一个docId不小于target的posting，没有时返回false **/
+    public boolean advance(int target) {
+      if (index >= 0 && doc >= target)
+        return doc != NO_MORE_DOCS;
+      // 跳表项k之前的posting的docId都不大于skipDocs[k]，小于target时可以整段跳过
+      while (nextSkip < skipDocs.length && skipDocs[nextSkip] < target) {
+        int skipIndex = (nextSkip + 1) * PostingListWritable.SKIP_INTERVAL - 1;
+        if (skipIndex > index) {
+          index = skipIndex;
+          doc = skipDocs[nextSkip];
+          pos = start + skipOffsets[nextSkip];
+        }
+        nextSkip++;
+      }
+      while (next()) {
+        if (doc >= target)
+          return true;
+      }
+      return false;
+    }
+
+    private int readVInt() {
+      int value = (int) readVLong(buf, pos);
+      pos += WritableUtils.decodeVIntSize(buf.get(pos));
+      return value;
+    }
+  }
+
+  /** 按WritableUtils.writeVLong()的格式从缓冲区的绝对位置解码 **/
+  static long readVLong(ByteBuffer buf, int pos) {
+    byte first = buf.get(pos);
+    int len = WritableUtils.decodeVIntSize(first);
+    if (len == 1)
+      return first;
+    long i = 0;
+    for (int idx = 1; idx < len; idx++)
+      i = (i << 8) | (buf.get(pos + idx) & 0xff);
+    return WritableUtils.isNegativeVInt(first) ? (i ^ -1L) : i;
+  }
+
+  public static class ScoredDoc {
+    public final int docId;
+    public final double score;
+
+    ScoredDoc(int docId, double score) {
+      this.docId = docId;
+      this.score = score;
+    }
+  }
+
+  /** 用容量为k的最小堆保留得分最高的k个文档 **/
+  static class TopK {
+    private final int k;
+    private final PriorityQueue<ScoredDoc> heap;
+
+    TopK(int k) {
+      this.k = k;
+      heap = new PriorityQueue<ScoredDoc>(Math.max(1, k), new Comparator<ScoredDoc>() {
+        public int compare(ScoredDoc a, ScoredDoc b) {
+          return Double.compare(a.score, b.score);
+        }
+      });
+    }
+
+    void offer(int docId, double score) {
+      if (heap.size() < k)
+        heap.add(new ScoredDoc(docId, score));
+      else if (k > 0 && score > heap.peek().score) {
+        heap.poll();
+        heap.add(new ScoredDoc(docId, score));
+      }
+    }
+
+    List<ScoredDoc> sorted() {
+      List<ScoredDoc> result = new ArrayList<ScoredDoc>(heap);
+      Collections.sort(result, new Comparator<ScoredDoc>() {
+        public int compare(ScoredDoc a, ScoredDoc b) {
+          return Double.compare(b.score, a.score);
+        }
+      });
+      return result;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: IndexQueryServer <index dir> [k]");
+      System.exit(2);
+    }
+    int k = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    IndexQueryServer server = new IndexQueryServer(new File(args[0]));
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in,
+        StandardCharsets.UTF_8));
+    String query;
+    while ((query = in.readLine()) != null) {
+      if (query.trim().isEmpty())
+        continue;
+      long start = System.nanoTime();
+      List<ScoredDoc> hits;
+      try {
+        hits = server.search(query, k);
+      } catch (IllegalArgumentException e) {
+        System.out.println(e.getMessage());
+        continue;
+      }
+      long micros = (System.nanoTime() - start) / 1000;
+      for (ScoredDoc hit : hits)
+        System.out.println(server.docName(hit.docId) + "\t" + hit.score);
+      System.out.println("(" + hits.size() + " results, " + micros + " us)");
+    }
+  }
+}
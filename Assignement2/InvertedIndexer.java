@@ -1,9 +1,14 @@
 ﻿import java.io.IOException;
-import java.util.List;
-import java.util.StringTokenizer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
@@ -12,14 +17,27 @@ import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
-import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class InvertedIndexer {
+  /** 打开二进制posting list输出的配置项，例如 -D invertedindex.binary=true **/
+  public static final String BINARY = "invertedindex.binary";
+  /** 文档字典，按文档名字节序排列、以换行分隔，行号即docId **/
+  public static final String DOCS = "invertedindex.docs";
+  /** 二进制输出目录中保存文档字典的文件名 **/
+  public static final String DOCS_FILE = "docs";
+  private static final String DOC_PATTERN = ".txt.segmented" +"|" + ".TXT.segmented" + "|" + " ";
+
+  /** 由输入文件名得到文档名 **/
+  public static String docName(String fileName) {
+    return fileName.replaceAll(DOC_PATTERN, "");
+  }
+
   /** 自定义FileInputFormat **/
   public static class FileNameInputFormat extends FileInputFormat<Text, Text> {
     @Override
@@ -34,11 +52,12 @@ public class InvertedIndexer {
   /** 自定义RecordReader **/
   public static class FileNameRecordReader extends RecordReader<Text, Text> {
     String fileName;
+    Text fileNameKey = new Text();
     LineRecordReader lrr = new LineRecordReader();
 
     @Override
     public Text getCurrentKey() throws IOException, InterruptedException {
-      return new Text(fileName);
+      return fileNameKey;
     }
 
     @Override
@@ -51,6 +70,7 @@ public class InvertedIndexer {
         throws IOException, InterruptedException {
       lrr.initialize(arg0, arg1);
       fileName = ((FileSplit) arg0).getPath().getName();
+      fileNameKey.set(fileName);
     }
 
     public void close() throws IOException {
@@ -68,27 +88,32 @@ public class InvertedIndexer {
 
 
   public static class InvertedIndexMapper extends
-      Mapper<Text, Text, Text, IntWritable> {
-	  private String pattern = ".txt.segmented" +"|" + ".TXT.segmented" + "|" + " ";
+      Mapper<Text, Text, TermDocWritable, IntWritable> {
+    private final static IntWritable one = new IntWritable(1);
+    private Text fileName = new Text();
+    private Text docName = new Text();
+    private TermDocWritable termDoc = new TermDocWritable();
+    private ByteTokenizer itr = new ByteTokenizer();
+
     protected void map(Text key, Text value, Context context)
         throws IOException, InterruptedException {
-      String temp = new String();
-      String line = value.toString();
-      Text newKey = new Text(key.toString().replaceAll(pattern, ""));
-      StringTokenizer itr = new StringTokenizer(line);
-      for (; itr.hasMoreTokens();) {
-        temp = itr.nextToken();
-        Text word = new Text();
-        word.set(temp + "#" + newKey);
-        context.write(word, new IntWritable(1));
+      // 同一个文件的所有行key都相同，只在文件名变化时做一次正则替换
+      if (!key.equals(fileName)) {
+        fileName.set(key);
+        docName.set(docName(key.toString()));
+      }
+      itr.reset(value);
+      while (itr.next()) {
+        termDoc.set(itr.getBytes(), itr.getStart(), itr.getLength(), docName);
+        context.write(termDoc, one);
       }
     }
   }
   public static class SumCombiner extends
-      Reducer<Text, IntWritable, Text, IntWritable> {
+      Reducer<TermDocWritable, IntWritable, TermDocWritable, IntWritable> {
     private IntWritable result = new IntWritable();
 
-    public void reduce(Text key, Iterable<IntWritable> values, Context context)
+    public void reduce(TermDocWritable key, Iterable<IntWritable> values, Context context)
         throws IOException, InterruptedException {
       int sum = 0;
       for (IntWritable val : values) {
@@ -99,94 +124,142 @@ public class InvertedIndexer {
     }
   }
 
-  public static class NewPartitioner extends HashPartitioner<Text, IntWritable> {
-    public int getPartition(Text key, IntWritable value, int numReduceTasks) {
-      String term = new String();
-      term = key.toString().split("#")[0];
-      return super.getPartition(new Text(term), value, numReduceTasks);
-    }
-  }
-
+  /**
+   * 借助TermGroupingComparator，一个term的全部<term, doc>在一次reduce()中按doc有序到达，
+   * 遍历values时key中的doc随之变化，doc变化时即得到上一个文档的词频
+   */
   public static class InvertedIndexReducer extends
-      Reducer<Text, IntWritable, Text, Text> {
-    private Text word1 = new Text();
-    private Text word2 = new Text();
-    String temp = new String();
-    static Text CurrentItem = new Text(" ");
-    private String pattern = "<" +"|" + ">";
-    static List<String> postingList = new ArrayList<String>();
-
-    public void reduce(Text key, Iterable<IntWritable> values, Context context)
+      Reducer<TermDocWritable, IntWritable, Text, Text> {
+    private Text doc = new Text();
+    private Text postings = new Text();
+    private StringBuilder out = new StringBuilder();
+
+    public void reduce(TermDocWritable key, Iterable<IntWritable> values, Context context)
         throws IOException, InterruptedException {
-      int sum = 0;
-      word1.set(key.toString().split("#")[0]);
-      temp = key.toString().split("#")[1];
+      out.setLength(0);
+      long count = 0;
+      long docs = 0;
+      long sum = 0;
       for (IntWritable val : values) {
+        if (docs == 0 || !key.getDoc().equals(doc)) {
+          if (docs > 0)
+            out.append(doc).append(':').append(sum).append(';');
+          doc.set(key.getDoc());
+          sum = 0;
+          docs++;
+        }
         sum += val.get();
+        count += val.get();
       }
-      word2.set("<" + temp + ":" + sum + ">");
-      if (!CurrentItem.equals(word1) && !CurrentItem.equals(" ")) {
-        StringBuilder out = new StringBuilder();
-        long count = 0;
-        long count2 = 0;
-        for (String p : postingList) {
-          out.append(p);
-          out.append(";");
-          count2 += 1;
-          count =
-              count
-                  + Long.parseLong(p.substring(p.indexOf(":") + 1,
-                      p.indexOf(">")));
-        }
-        double result = (count / (count2 * 1.0));
-        
-        String average = String.valueOf(result) + "," + out.toString().replaceAll(pattern, "");
-        if (count > 0)
-          context.write(CurrentItem, new Text(average));
-        postingList = new ArrayList<String>();
+      out.append(doc).append(':').append(sum).append(';');
+      double result = (count / (docs * 1.0));
+      if (count > 0) {
+        postings.set(String.valueOf(result) + "," + out);
+        context.write(key.getTerm(), postings);
       }
-      CurrentItem = new Text(word1);
-      postingList.add(word2.toString()); 
     }
+  }
 
+  /**
+   * 输出二进制posting list的Reducer：文档名经DOCS字典换成docId，
+   * 由于字典和shuffle都按文档名字节序排列，同一term的docId天然递增，可以差值编码
+   */
+  public static class BinaryInvertedIndexReducer extends
+      Reducer<TermDocWritable, IntWritable, Text, PostingListWritable> {
+    private Map<Text, Integer> docIds = new HashMap<Text, Integer>();
+    private PostingListWritable postings = new PostingListWritable();
+    private Text doc = new Text();
 
-    public void cleanup(Context context) throws IOException,
-        InterruptedException {
-      StringBuilder out = new StringBuilder();
-      long count = 0;
-      long count2 = 0;
-      for (String p : postingList) {
-        out.append(p);
-        out.append("; ");
-        count2 += 1;
-        count =
-            count
-                + Long
-                    .parseLong(p.substring(p.indexOf(":") + 1, p.indexOf(">")));
+    public void setup(Context context) {
+      String[] docs = context.getConfiguration().get(DOCS).split("\n");
+      for (int i = 0; i < docs.length; i++)
+        docIds.put(new Text(docs[i]), i);
+    }
+
+    public void reduce(TermDocWritable key, Iterable<IntWritable> values, Context context)
+        throws IOException, InterruptedException {
+      postings.clear();
+      int sum = 0;
+      boolean first = true;
+      for (IntWritable val : values) {
+        if (first || !key.getDoc().equals(doc)) {
+          if (!first)
+            postings.add(docId(doc), sum);
+          doc.set(key.getDoc());
+          sum = 0;
+          first = false;
+        }
+        sum += val.get();
       }
-      double result = (count / (count2 * 1.0));
-      String average = String.valueOf(result) + "," + out.toString().replaceAll(pattern, "");
-      if (count > 0)
-        context.write(CurrentItem, new Text(average));
+      postings.add(docId(doc), sum);
+      if (postings.getTotalFreq() > 0)
+        context.write(key.getTerm(), postings);
     }
 
+    private int docId(Text doc) throws IOException {
+      Integer id = docIds.get(doc);
+      if (id == null)
+        throw new IOException("document " + doc + " is not in the dictionary");
+      return id;
+    }
+  }
+
+  /** 列出输入目录下的全部文档名，按Text的字节序排序去重，下标即docId **/
+  public static List<Text> listDocs(Configuration conf, Path input)
+      throws IOException {
+    FileSystem fs = input.getFileSystem(conf);
+    TreeSet<Text> docs = new TreeSet<Text>();
+    for (FileStatus status : fs.listStatus(input)) {
+      if (!status.isDir())
+        docs.add(new Text(docName(status.getPath().getName())));
+    }
+    return new ArrayList<Text>(docs);
   }
 
   public static void main(String[] args) throws Exception {
       Configuration conf = new Configuration();
+      args = new GenericOptionsParser(conf, args).getRemainingArgs();
+      boolean binary = conf.getBoolean(BINARY, false);
+      List<Text> docs = null;
+      if (binary) {
+        docs = listDocs(conf, new Path(args[0]));
+        StringBuilder joined = new StringBuilder();
+        for (Text doc : docs)
+          joined.append(doc).append('\n');
+        conf.set(DOCS, joined.toString());
+      }
       Job job = new Job(conf, "inverted index");
       job.setJarByClass(InvertedIndexer.class);
       job.setInputFormatClass(FileNameInputFormat.class);
       job.setMapperClass(InvertedIndexMapper.class);
       job.setCombinerClass(SumCombiner.class);
-      job.setReducerClass(InvertedIndexReducer.class);
-      job.setPartitionerClass(NewPartitioner.class);
-      job.setMapOutputKeyClass(Text.class);
+      if (binary) {
+        job.setReducerClass(BinaryInvertedIndexReducer.class);
+        job.setOutputFormatClass(PostingListOutputFormat.class);
+        job.setOutputValueClass(PostingListWritable.class);
+      } else {
+        job.setReducerClass(InvertedIndexReducer.class);
+        job.setOutputValueClass(Text.class);
+      }
+      job.setPartitionerClass(TermDocWritable.TermPartitioner.class);
+      job.setSortComparatorClass(TermDocWritable.Comparator.class);
+      job.setGroupingComparatorClass(TermDocWritable.TermGroupingComparator.class);
+      job.setMapOutputKeyClass(TermDocWritable.class);
       job.setMapOutputValueClass(IntWritable.class);
       job.setOutputKeyClass(Text.class);
-      job.setOutputValueClass(Text.class);
       FileInputFormat.addInputPath(job, new Path(args[0]));
       FileOutputFormat.setOutputPath(job, new Path(args[1]));
-      System.exit(job.waitForCompletion(true) ? 0 : 1);
+      boolean success = job.waitForCompletion(true);
+      if (success && binary) {
+        // 文档字典写到输出目录下，每行一个文档名，行号即docId
+        Path docsFile = new Path(args[1], DOCS_FILE);
+        FSDataOutputStream out = docsFile.getFileSystem(conf).create(docsFile);
+        for (Text doc : docs) {
+          out.write(doc.getBytes(), 0, doc.getLength());
+          out.write('\n');
+        }
+        out.close();
+      }
+      System.exit(success ? 0 : 1);
   }
 }
@@ -0,0 +1,62 @@
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * 二进制倒排索引输出格式，每个Reducer输出两个文件：
+ * <p>
+ * part-r-NNNNN.post 依次存放每个term的记录：vint term长度 + term的UTF-8字节 + PostingListWritable。
+ * <p>
+ * part-r-NNNNN.idx 是按term排序的定长词典，每条记录 {@value #INDEX_RECORD_SIZE} 字节：
+ * long 该term记录在.post中的偏移，int 文档数，double 平均词频。
+ * 由于Reducer的输入已按term排序，词典天然有序，可以直接mmap后二分查找
+ */
+public class PostingListOutputFormat extends FileOutputFormat<Text, PostingListWritable> {
+  public static final String POSTINGS_EXTENSION = ".post";
+  public static final String INDEX_EXTENSION = ".idx";
+  public static final int INDEX_RECORD_SIZE = 8 + 4 + 8;
+
+  @Override
+  public RecordWriter<Text, PostingListWritable> getRecordWriter(
+      TaskAttemptContext context) throws IOException, InterruptedException {
+    Path postings = getDefaultWorkFile(context, POSTINGS_EXTENSION);
+    Path index = getDefaultWorkFile(context, INDEX_EXTENSION);
+    FileSystem fs = postings.getFileSystem(context.getConfiguration());
+    return new PostingListRecordWriter(fs.create(postings, false),
+        fs.create(index, false));
+  }
+
+  public static class PostingListRecordWriter extends
+      RecordWriter<Text, PostingListWritable> {
+    private FSDataOutputStream postings;
+    private FSDataOutputStream index;
+
+    public PostingListRecordWriter(FSDataOutputStream postings,
+        FSDataOutputStream index) {
+      this.postings = postings;
+      this.index = index;
+    }
+
+    @Override
+    public void write(Text term, PostingListWritable value) throws IOException {
+      long offset = postings.getPos();
+      term.write(postings);
+      value.write(postings);
+      index.writeLong(offset);
+      index.writeInt(value.size());
+      index.writeDouble(value.getAverage());
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      postings.close();
+      index.close();
+    }
+  }
+}
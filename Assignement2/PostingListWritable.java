@@ -0,0 +1,120 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 一个term的posting list：按docId递增排列的 (docId, 词频) 序列。
+ * <p>
+ * 序列化格式：vint文档数；vint跳表项数；每个跳表项写vint(docId差值)和vint(字节偏移差值)；
+ * 之后每个posting写vint(docId与前一个docId的差值)和vint(词频)。
+ * 第k个跳表项指向第(k+1)*{@value #SKIP_INTERVAL}个posting，记录它前一个posting的docId
+ * （即解码差值的基准）和它相对posting区起点的字节偏移，查询时据此跳过不可能匹配的posting
+ */
+public class PostingListWritable implements Writable {
+  public static final int SKIP_INTERVAL = 32;
+
+  private DataOutputBuffer buffer = new DataOutputBuffer();
+  private int[] skipOffsets = new int[4];
+  private int size = 0;
+  private int[] docIds = new int[16];
+  private int[] freqs = new int[16];
+  private long totalFreq = 0;
+
+  public void clear() {
+    size = 0;
+    totalFreq = 0;
+  }
+
+  /** 追加一个posting，docId必须严格递增 **/
+  public void add(int docId, int freq) {
+    if (size > 0 && docId <= docIds[size - 1])
+      throw new IllegalArgumentException("doc ids must be strictly increasing: "
+          + docIds[size - 1] + " then " + docId);
+    if (size == docIds.length) {
+      docIds = Arrays.copyOf(docIds, size * 2);
+      freqs = Arrays.copyOf(freqs, size * 2);
+    }
+    docIds[size] = docId;
+    freqs[size] = freq;
+    size++;
+    totalFreq += freq;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int docId(int i) {
+    return docIds[i];
+  }
+
+  public int freq(int i) {
+    return freqs[i];
+  }
+
+  public long getTotalFreq() {
+    return totalFreq;
+  }
+
+  /** 平均每个出现该term的文档中的词频，与文本输出中的average相同 **/
+  public double getAverage() {
+    return size == 0 ? 0 : totalFreq / (size * 1.0);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    int skips = size > 0 ? (size - 1) / SKIP_INTERVAL : 0;
+    if (skipOffsets.length < skips)
+      skipOffsets = new int[skips];
+    buffer.reset();
+    int last = 0;
+    for (int i = 0; i < size; i++) {
+      if (i > 0 && i % SKIP_INTERVAL == 0)
+        skipOffsets[i / SKIP_INTERVAL - 1] = buffer.getLength();
+      WritableUtils.writeVInt(buffer, docIds[i] - last);
+      WritableUtils.writeVInt(buffer, freqs[i]);
+      last = docIds[i];
+    }
+    WritableUtils.writeVInt(out, size);
+    WritableUtils.writeVInt(out, skips);
+    int lastDoc = 0;
+    int lastOffset = 0;
+    for (int k = 0; k < skips; k++) {
+      int baseDoc = docIds[(k + 1) * SKIP_INTERVAL - 1];
+      WritableUtils.writeVInt(out, baseDoc - lastDoc);
+      WritableUtils.writeVInt(out, skipOffsets[k] - lastOffset);
+      lastDoc = baseDoc;
+      lastOffset = skipOffsets[k];
+    }
+    out.write(buffer.getData(), 0, buffer.getLength());
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    clear();
+    int n = WritableUtils.readVInt(in);
+    int skips = WritableUtils.readVInt(in);
+    for (int k = 0; k < skips; k++) {
+      WritableUtils.readVInt(in);
+      WritableUtils.readVInt(in);
+    }
+    int last = 0;
+    for (int i = 0; i < n; i++) {
+      last += WritableUtils.readVInt(in);
+      add(last, WritableUtils.readVInt(in));
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < size; i++)
+      out.append(docIds[i]).append(':').append(freqs[i]).append(';');
+    return out.toString();
+  }
+}
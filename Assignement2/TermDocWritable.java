@@ -0,0 +1,149 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * 倒排索引的复合键 <term, doc>，取代原来拼接出来的 "term#doc" Text。
+ * 序列化格式为两个连续的Text（vint长度 + UTF-8字节），
+ * 排序、分区和分组都直接在字节上完成，不需要反序列化或split("#")
+ */
+public class TermDocWritable implements WritableComparable<TermDocWritable> {
+  private Text term = new Text();
+  private Text doc = new Text();
+
+  public TermDocWritable() {
+  }
+
+  public TermDocWritable(String term, String doc) {
+    set(term, doc);
+  }
+
+  public void set(String term, String doc) {
+    this.term.set(term);
+    this.doc.set(doc);
+  }
+
+  public void set(String term, Text doc) {
+    this.term.set(term);
+    this.doc.set(doc);
+  }
+
+  public void set(byte[] termBytes, int start, int length, Text doc) {
+    this.term.set(termBytes, start, length);
+    this.doc.set(doc);
+  }
+
+  public Text getTerm() {
+    return term;
+  }
+
+  public Text getDoc() {
+    return doc;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    term.write(out);
+    doc.write(out);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    term.readFields(in);
+    doc.readFields(in);
+  }
+
+  @Override
+  public int compareTo(TermDocWritable o) {
+    int cmp = term.compareTo(o.term);
+    return cmp != 0 ? cmp : doc.compareTo(o.doc);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TermDocWritable))
+      return false;
+    TermDocWritable other = (TermDocWritable) o;
+    return term.equals(other.term) && doc.equals(other.doc);
+  }
+
+  /** 只用term计算hash，保证同一个term的所有<term, doc>进入同一个Reducer **/
+  @Override
+  public int hashCode() {
+    return term.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return term + "#" + doc;
+  }
+
+  /** 先按term再按doc的字节序比较，与compareTo()一致 **/
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(TermDocWritable.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        int termSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int termSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        int termLength1 = readVInt(b1, s1);
+        int termLength2 = readVInt(b2, s2);
+        int cmp = compareBytes(b1, s1 + termSize1, termLength1,
+            b2, s2 + termSize2, termLength2);
+        if (cmp != 0)
+          return cmp;
+        int d1 = s1 + termSize1 + termLength1;
+        int d2 = s2 + termSize2 + termLength2;
+        int docSize1 = WritableUtils.decodeVIntSize(b1[d1]);
+        int docSize2 = WritableUtils.decodeVIntSize(b2[d2]);
+        return compareBytes(b1, d1 + docSize1, readVInt(b1, d1),
+            b2, d2 + docSize2, readVInt(b2, d2));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+
+  /** 分组时只比较term，一个term的全部posting在一次reduce()调用中按doc顺序到达 **/
+  public static class TermGroupingComparator extends WritableComparator {
+    public TermGroupingComparator() {
+      super(TermDocWritable.class, true);
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        int termSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int termSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareBytes(b1, s1 + termSize1, readVInt(b1, s1),
+            b2, s2 + termSize2, readVInt(b2, s2));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable a, WritableComparable b) {
+      return ((TermDocWritable) a).term.compareTo(((TermDocWritable) b).term);
+    }
+  }
+
+  /** 只对term的字节求hash进行分区，不创建任何对象 **/
+  public static class TermPartitioner<V> extends Partitioner<TermDocWritable, V> {
+    public int getPartition(TermDocWritable key, V value, int numReduceTasks) {
+      int hash = WritableComparator.hashBytes(key.term.getBytes(), key.term.getLength());
+      return (hash & Integer.MAX_VALUE) % numReduceTasks;
+    }
+  }
+
+  static {
+    WritableComparator.define(TermDocWritable.class, new Comparator());
+  }
+}
@@ -0,0 +1,104 @@
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * 直接扫描Text.getBytes()的分词器，分隔符与StringTokenizer的默认分隔符相同（空格、\t、\n、\r、\f）。
+ * 由于这些字节不会出现在UTF-8多字节字符内部，切分结果与先toString()再分词完全一致。
+ * <p>
+ * 每次next()之后，当前词以字节切片的形式通过getBytes()/getStart()/getLength()访问，
+ * 同一个ByteTokenizer可以reset()后反复使用，整个过程不创建String对象
+ */
+public class ByteTokenizer {
+  private byte[] bytes;
+  private int pos;
+  private int end;
+  private int start;
+  private int length;
+
+  public ByteTokenizer reset(Text text) {
+    return reset(text.getBytes(), 0, text.getLength());
+  }
+
+  public ByteTokenizer reset(byte[] bytes, int offset, int len) {
+    this.bytes = bytes;
+    this.pos = offset;
+    this.end = offset + len;
+    this.start = offset;
+    this.length = 0;
+    return this;
+  }
+
+  /** 移动到下一个词，没有更多的词时返回false **/
+  public boolean next() {
+    while (pos < end && isDelimiter(bytes[pos]))
+      pos++;
+    if (pos == end) {
+      length = 0;
+      return false;
+    }
+    start = pos;
+    while (pos < end && !isDelimiter(bytes[pos]))
+      pos++;
+    length = pos - start;
+    return true;
+  }
+
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /** 把当前词复制到一个可重用的Text中 **/
+  public void copyTo(Text out) {
+    out.set(bytes, start, length);
+  }
+
+  /** 把当前词按十进制解析为long，格式要求与Long.parseLong()相同 **/
+  public long parseLong() {
+    return parseLong(bytes, start, length);
+  }
+
+  public static long parseLong(byte[] bytes, int start, int length) {
+    if (length == 0)
+      throw new NumberFormatException("empty number");
+    int i = start;
+    int stop = start + length;
+    boolean negative = false;
+    if (bytes[i] == '-' || bytes[i] == '+') {
+      negative = bytes[i] == '-';
+      if (++i == stop)
+        throw invalidNumber(bytes, start, length);
+    }
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multmin = limit / 10;
+    long result = 0; // 与Long.parseLong()一样用负数累加，避免Long.MIN_VALUE溢出
+    for (; i < stop; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9 || result < multmin)
+        throw invalidNumber(bytes, start, length);
+      result *= 10;
+      if (result < limit + digit)
+        throw invalidNumber(bytes, start, length);
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  private static NumberFormatException invalidNumber(byte[] bytes, int start,
+      int length) {
+    return new NumberFormatException("For input string: \""
+        + new String(bytes, start, length, StandardCharsets.UTF_8) + "\"");
+  }
+
+  private static boolean isDelimiter(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+  }
+}
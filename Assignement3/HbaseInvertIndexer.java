@@ -1,13 +1,17 @@
 import java.io.IOException;
 import java.util.List;
-import java.util.StringTokenizer;
 import java.util.ArrayList;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
@@ -21,34 +25,42 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class HbaseInvertIndexer {
 	
 	static String tableName = "WuXia";
-	private static HTable table = null;
-	private static Configuration conf1 = null;
-	static {
-		conf1 = HBaseConfiguration.create();
-	    conf1.set("hbase.zookeeper.quorum", "127.0.0.1");
-	    try {
-	    	table = new HTable(conf1, tableName);
-	    	} catch (IOException e) {
-	    		e.printStackTrace();
-	    	}
+	/** 每批提交的Put数量 **/
+	public static final String BATCH_SIZE = "hbaseinvertindexer.batch.size";
+	/** HTable客户端写缓冲区大小（字节） **/
+	public static final String WRITE_BUFFER = "hbaseinvertindexer.write.buffer";
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final long DEFAULT_WRITE_BUFFER = 4L * 1024 * 1024;
+	/** 打开bulk load模式：生成HFile后直接导入表中，不经过RegionServer的写路径 **/
+	public static final String BULK_LOAD = "hbaseinvertindexer.bulkload";
+	/** bulk load模式下只生成HFile而不导入，便于对照本地HBase检查输出 **/
+	public static final String BULK_LOAD_SKIP_IMPORT = "hbaseinvertindexer.bulkload.skipimport";
+	/** bulk load模式下Reducer输出平均词频KeyValue的named output **/
+	static final String AVERAGES = "averages";
+	private static final byte[] family = Bytes.toBytes("cf");
+	private static final byte[] qualifier = Bytes.toBytes("average_times");
+
+	/** 在作业配置的基础上加入HBase配置，未指定zookeeper时使用本机 **/
+	static Configuration hbaseConfiguration(Configuration jobConf) {
+		Configuration conf = HBaseConfiguration.create(jobConf);
+		if (jobConf.get("hbase.zookeeper.quorum") == null)
+			conf.set("hbase.zookeeper.quorum", "127.0.0.1");
+		return conf;
 	}
-	public static void addData(String tableName,String RowKey, String family, String qualifier, double value)
-    {
-    	try
-    	{
-    		//HTable table = new HTable(conf1, tableName);
-    		Put put = new Put(Bytes.toBytes(RowKey));
-    		put.add(Bytes.toBytes(family), Bytes.toBytes(qualifier), Bytes.toBytes(String.valueOf(value)));
-    		table.put(put);
-    	} catch (IOException e) {
-    		e.printStackTrace();
-    	}
-    }
+
+	public static enum HBaseWriteCounter {
+		PUTS, BATCHES, BATCH_LATENCY_MS, FAILED_PUTS
+	}
+
 	//private static Logger logger = LoggerFactory.getLogger(HbaseInvertIndexer.class);
   /** 自定义FileInputFormat **/
   public static class FileNameInputFormat extends FileInputFormat<Text, Text> {
@@ -64,11 +76,12 @@ public class HbaseInvertIndexer {
   /** 自定义RecordReader **/
   public static class FileNameRecordReader extends RecordReader<Text, Text> {
     String fileName;
+    Text fileNameKey = new Text();
     LineRecordReader lrr = new LineRecordReader();
 
     @Override
     public Text getCurrentKey() throws IOException, InterruptedException {
-      return new Text(fileName);
+      return fileNameKey;
     }
 
     @Override
@@ -81,6 +94,7 @@ public class HbaseInvertIndexer {
         throws IOException, InterruptedException {
       lrr.initialize(arg0, arg1);
       fileName = ((FileSplit) arg0).getPath().getName();
+      fileNameKey.set(fileName);
     }
 
     public void close() throws IOException {
@@ -101,17 +115,26 @@ public class HbaseInvertIndexer {
   public static class HbaseInvertedIndexMapper extends
       Mapper<Text, Text, Text, IntWritable> {
 	  private String pattern = ".txt.segmented" +"|" + ".TXT.segmented" + "|" + " ";
+    private final static IntWritable one = new IntWritable(1);
+    private final static byte[] separator = { '#' };
+    private Text fileName = new Text();
+    private Text docName = new Text();
+    private Text word = new Text();
+    private ByteTokenizer itr = new ByteTokenizer();
+
     protected void map(Text key, Text value, Context context)
         throws IOException, InterruptedException {
-      String temp = new String();
-      String line = value.toString();
-      Text newKey = new Text(key.toString().replaceAll(pattern, ""));
-      StringTokenizer itr = new StringTokenizer(line);
-      for (; itr.hasMoreTokens();) {
-        temp = itr.nextToken();
-        Text word = new Text();
-        word.set(temp + "#" + newKey);
-        context.write(word, new IntWritable(1));
+      // 同一个文件的所有行key都相同，只在文件名变化时做一次正则替换
+      if (!key.equals(fileName)) {
+        fileName.set(key);
+        docName.set(key.toString().replaceAll(pattern, ""));
+      }
+      itr.reset(value);
+      while (itr.next()) {
+        itr.copyTo(word);
+        word.append(separator, 0, 1);
+        word.append(docName.getBytes(), 0, docName.getLength());
+        context.write(word, one);
       }
     }
   }
@@ -137,6 +160,11 @@ public class HbaseInvertIndexer {
       return super.getPartition(new Text(term), value, numReduceTasks);
     }
   }
+  /**
+   * 每个term的平均词频写入HBase的cf:average_times。Put先攒在pending中，
+   * 满BATCH_SIZE条或cleanup()时一次性put()并flushCommits()，每批的耗时和失败数记入计数器。
+   * bulk load模式下不连接HBase，而是把KeyValue写到名为averages的SequenceFile中，由bulkLoad()生成HFile
+   */
   public static class HbaseInvertedIndexReducer extends
       Reducer<Text, IntWritable, Text, Text>{
 	  
@@ -146,17 +174,66 @@ public class HbaseInvertIndexer {
     static Text CurrentItem = new Text(" ");
     private String pattern = "<" +"|" + ">";
     static List<String> postingList = new ArrayList<String>();
+    private HTable table;
+    private List<Put> pending = new ArrayList<Put>();
+    private int batchSize;
+    private MultipleOutputs<Text, Text> averages;
+    private ImmutableBytesWritable row = new ImmutableBytesWritable();
+
+    public void setup(Context context) throws IOException {
+      if (context.getConfiguration().getBoolean(BULK_LOAD, false)) {
+        averages = new MultipleOutputs<Text, Text>(context);
+        return;
+      }
+      Configuration conf = hbaseConfiguration(context.getConfiguration());
+      batchSize = conf.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+      table = new HTable(conf, tableName);
+      table.setAutoFlush(false);
+      table.setWriteBufferSize(conf.getLong(WRITE_BUFFER, DEFAULT_WRITE_BUFFER));
+    }
+
+    private void addData(Context context, String rowKey, double value)
+        throws IOException, InterruptedException {
+      byte[] rowBytes = Bytes.toBytes(rowKey);
+      byte[] valueBytes = Bytes.toBytes(String.valueOf(value));
+      if (averages != null) {
+        row.set(rowBytes);
+        averages.write(AVERAGES, row, new KeyValue(rowBytes, family, qualifier, valueBytes));
+        return;
+      }
+      Put put = new Put(rowBytes);
+      put.add(family, qualifier, valueBytes);
+      pending.add(put);
+      if (pending.size() >= batchSize)
+        flushBatch(context);
+    }
+
+    private void flushBatch(Context context) throws IOException {
+      if (table == null || pending.isEmpty())
+        return;
+      long start = System.currentTimeMillis();
+      try {
+        table.put(pending);
+        table.flushCommits();
+      } catch (RetriesExhaustedWithDetailsException e) {
+        context.getCounter(HBaseWriteCounter.FAILED_PUTS).increment(e.getNumExceptions());
+        throw e;
+      } catch (IOException e) {
+        context.getCounter(HBaseWriteCounter.FAILED_PUTS).increment(pending.size());
+        throw e;
+      }
+      context.getCounter(HBaseWriteCounter.BATCH_LATENCY_MS).increment(
+          System.currentTimeMillis() - start);
+      context.getCounter(HBaseWriteCounter.BATCHES).increment(1);
+      context.getCounter(HBaseWriteCounter.PUTS).increment(pending.size());
+      pending.clear();
+    }
    
     public void reduce(Text key, Iterable<IntWritable> values, Context context)
         throws IOException, InterruptedException {
       int sum = 0;
       word1.set(key.toString().split("#")[0]);
       temp = key.toString().split("#")[1];
-      
-      String rowKey = key.toString().split("#")[0];
-      //ImmutableBytesWritable x = new ImmutableBytesWritable();
-      //x.toString();
-     // Put put = new Put(rowKey);
       for (IntWritable val : values) {
         sum += val.get();
       }
@@ -176,11 +253,11 @@ public class HbaseInvertIndexer {
         }
         
         double result = (count / (count2 * 1.0));
-        // public static void addData(String tableName,String RowKey, String family, String qualifier, double value)
-        addData(tableName, rowKey, "cf", "average_times", result);
         String average = "," + out.toString().replaceAll(pattern, "");
-        if (count > 0)
+        if (count > 0) {
+          addData(context, CurrentItem.toString(), result);
           context.write(CurrentItem, new Text(average));
+        }
         
         postingList = new ArrayList<String>();
       }
@@ -204,21 +281,56 @@ public class HbaseInvertIndexer {
                 + Long
                     .parseLong(p.substring(p.indexOf(":") + 1, p.indexOf(">")));
       }
-      String rowKey = CurrentItem.toString();
-     // Put put = new Put(rowKey);
       double result = (count / (count2 * 1.0));
-      //put.add("cf".getBytes(), "avrage_times".getBytes(), Bytes.toBytes(result));
-      addData(tableName, rowKey, "cf", "average_times", result);
       String average = "," + out.toString().replaceAll(pattern, "");
-      if (count > 0)
+      if (count > 0) {
+        addData(context, CurrentItem.toString(), result);
         context.write(CurrentItem, new Text(average));
+      }
+      if (averages != null) {
+        averages.close();
+      } else {
+        flushBatch(context);
+        table.close();
+      }
     }
 
   }
   
   
+  /**
+   * 第二个作业：读取averages输出的KeyValue，由HFileOutputFormat.configureIncrementalLoad()
+   * 按表当前的region边界设置TotalOrderPartitioner和排序Reducer，生成有序的HFile，
+   * 再用LoadIncrementalHFiles把它们直接移入各个region
+   */
+  public static boolean bulkLoad(Configuration jobConf, Path output)
+      throws Exception {
+    Configuration conf = hbaseConfiguration(jobConf);
+    HTable table = new HTable(conf, tableName);
+    try {
+      Path hfiles = new Path(output, "hfiles");
+      Job job = new Job(conf, "inverted index hfiles");
+      job.setJarByClass(HbaseInvertIndexer.class);
+      job.setInputFormatClass(SequenceFileInputFormat.class);
+      job.setMapperClass(Mapper.class);
+      job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+      job.setMapOutputValueClass(KeyValue.class);
+      FileInputFormat.addInputPath(job, new Path(output, AVERAGES + "-r-*"));
+      FileOutputFormat.setOutputPath(job, hfiles);
+      HFileOutputFormat.configureIncrementalLoad(job, table);
+      if (!job.waitForCompletion(true))
+        return false;
+      if (!conf.getBoolean(BULK_LOAD_SKIP_IMPORT, false))
+        new LoadIncrementalHFiles(conf).doBulkLoad(hfiles, table);
+      return true;
+    } finally {
+      table.close();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
       Configuration conf = new Configuration();
+      args = new GenericOptionsParser(conf, args).getRemainingArgs();
       
       Job job = new Job(conf, "inverted index");
       job.setJarByClass(HbaseInvertIndexer.class);
@@ -233,7 +345,14 @@ public class HbaseInvertIndexer {
       job.setOutputValueClass(Text.class);
       FileInputFormat.addInputPath(job, new Path(args[0]));
       FileOutputFormat.setOutputPath(job, new Path(args[1]));
+      boolean bulkLoad = conf.getBoolean(BULK_LOAD, false);
+      if (bulkLoad)
+        MultipleOutputs.addNamedOutput(job, AVERAGES, SequenceFileOutputFormat.class,
+            ImmutableBytesWritable.class, KeyValue.class);
       
-      System.exit(job.waitForCompletion(true) ? 0 : 1);
+      boolean success = job.waitForCompletion(true);
+      if (success && bulkLoad)
+        success = bulkLoad(conf, new Path(args[1]));
+      System.exit(success ? 0 : 1);
   }
 }
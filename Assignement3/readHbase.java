@@ -1,6 +1,18 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -9,61 +21,157 @@ import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 public class readHbase
 {
+	/** 每次RPC从RegionServer取回的行数 **/
+	public static final String CACHING = "readhbase.scanner.caching";
+	/** 要导出的列，逗号分隔的family:qualifier **/
+	public static final String COLUMNS = "readhbase.columns";
+	/** 是否用gzip压缩每个region的输出文件 **/
+	public static final String COMPRESS = "readhbase.compress";
+
 	private static Configuration conf = null;
 	static {
 		conf = HBaseConfiguration.create();
 	    conf.set("hbase.zookeeper.quorum", "127.0.0.1");
 	}
-	public static void scanRows(String tableName, String fileName) throws IOException
+
+	/** 按配置设置scanner缓存和列选择，不把扫描结果放入block cache **/
+	private static Scan newScan(byte[] startRow, byte[] stopRow)
 	{
-		HTable table = new HTable(conf, tableName);
-		Scan s = new Scan();
-		ResultScanner ss = table.getScanner(s);
+		Scan s = new Scan(startRow, stopRow);
+		s.setCaching(conf.getInt(CACHING, 1000));
+		s.setCacheBlocks(false);
+		for (String column : conf.getStrings(COLUMNS, "cf:average_times"))
+		{
+			String[] fq = column.split(":");
+			if (fq.length == 1)
+				s.addFamily(Bytes.toBytes(fq[0]));
+			else
+				s.addColumn(Bytes.toBytes(fq[0]), Bytes.toBytes(fq[1]));
+		}
+		return s;
+	}
+
+	/** 把一个scanner的全部结果写到一个Writer中，每个KeyValue输出一行 row\tvalue **/
+	private static long writeRows(ResultScanner ss, Writer w) throws IOException
+	{
+		long rows = 0;
 		for (Result r : ss)
 		{
 			for (KeyValue kv : r.raw())
 			{
-				AppendToFile(fileName, new String(kv.getRow()) + "\t");
-				AppendToFile(fileName, new String(kv.getValue()));
-				AppendToFile(fileName, "\r\n");
+				w.write(Bytes.toString(kv.getRow()));
+				w.write('\t');
+				w.write(Bytes.toString(kv.getValue()));
+				w.write("\r\n");
 			}
+			rows++;
 		}
+		return rows;
 	}
-	public static void AppendToFile(String fileName, String str)
+
+	/** append为true时追加到已有文件末尾；压缩时追加的内容是一个新的gzip成员，gunzip仍可整体解压 **/
+	private static Writer openWriter(File file, boolean append) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file, append);
+		if (conf.getBoolean(COMPRESS, false))
+			out = new GZIPOutputStream(out, 64 * 1024);
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+	}
+
+	/** 单线程扫描整张表，结果追加到一个文件末尾 **/
+	public static void scanRows(String tableName, String fileName) throws IOException
 	{
+		HTable table = new HTable(conf, tableName);
+		ResultScanner ss = table.getScanner(newScan(new byte[0], new byte[0]));
+		Writer w = openWriter(new File(fileName), true);
 		try
 		{
-			File file = new File(fileName);
-			if(!file.exists())
-			{
-				try {
-					file.createNewFile();
-				} catch(IOException e)
+			writeRows(ss, w);
+		} finally {
+			w.close();
+			ss.close();
+			table.close();
+		}
+	}
+
+	/**
+	 * 按region切分整张表，用threads个线程并行扫描，每个region输出到outputDir下的一个文件
+	 * region-NNNNN.txt（压缩时为.txt.gz），已有的同名文件被覆盖，返回导出的总行数
+	 */
+	public static long exportRegions(final String tableName, String outputDir, int threads)
+			throws Exception
+	{
+		final File dir = new File(outputDir);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create " + dir);
+		HTable table = new HTable(conf, tableName);
+		Pair<byte[][], byte[][]> keys;
+		try
+		{
+			keys = table.getStartEndKeys();
+		} finally {
+			table.close();
+		}
+		final String suffix = conf.getBoolean(COMPRESS, false) ? ".txt.gz" : ".txt";
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for (int i = 0; i < keys.getFirst().length; i++)
+		{
+			final int region = i;
+			final byte[] startRow = keys.getFirst()[i];
+			final byte[] stopRow = keys.getSecond()[i];
+			results.add(pool.submit(new Callable<Long>() {
+				public Long call() throws IOException
 				{
-					e.printStackTrace();
+					// HTable不是线程安全的，每个region使用自己的HTable
+					HTable t = new HTable(conf, tableName);
+					ResultScanner ss = t.getScanner(newScan(startRow, stopRow));
+					Writer w = openWriter(new File(dir, String.format("region-%05d", region) + suffix), false);
+					try
+					{
+						return writeRows(ss, w);
+					} finally {
+						w.close();
+						ss.close();
+						t.close();
+					}
 				}
-			}
-			FileWriter w = new FileWriter(fileName, true);
-			w.write(str);
-			w.close();
-		} catch(IOException e) {
-			e.printStackTrace();
+			}));
 		}
+		pool.shutdown();
+		long rows = 0;
+		for (Future<Long> f : results)
+			rows += f.get();
+		return rows;
 	}
-	
-	public static void main(String[] args) throws IOException
+
+	public static void main(String[] args) throws Exception
 	{
-		try {
-			String tableName = args[0];
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (args.length < 1)
+		{
+			System.err.println("Usage: readHbase [-D " + CACHING + "=N] [-D " + COLUMNS
+					+ "=cf:qualifier] [-D " + COMPRESS + "=true] <tableName> [<output dir> [<threads>]]");
+			System.exit(2);
+		}
+		String tableName = args[0];
+		if (args.length == 1)
+		{
 			String fileName = "/home/hadoop/exp3_4text_out.txt";
 			readHbase.scanRows(tableName, fileName);
-		} catch(IOException e)
-		{
-			e.printStackTrace();
+			return;
 		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		long start = System.currentTimeMillis();
+		long rows = readHbase.exportRegions(tableName, args[1], threads);
+		System.out.println("exported " + rows + " rows in "
+				+ (System.currentTimeMillis() - start) + " ms");
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,103 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 图中的一条边 (u, v)，序列化为两个变长编码的long（WritableUtils.writeVLong），
+ * 代替中间结果中 "u,v" 形式的文本。
+ * 排序先比较u再比较v，Comparator直接在序列化后的字节上解码比较
+ */
+public class EdgeWritable implements WritableComparable<EdgeWritable> {
+    private long u;
+    private long v;
+
+    public EdgeWritable() {
+    }
+
+    public EdgeWritable(long u, long v) {
+        set(u, v);
+    }
+
+    public void set(long u, long v) {
+        this.u = u;
+        this.v = v;
+    }
+
+    public long getU() {
+        return u;
+    }
+
+    public long getV() {
+        return v;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, u);
+        WritableUtils.writeVLong(out, v);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        u = WritableUtils.readVLong(in);
+        v = WritableUtils.readVLong(in);
+    }
+
+    @Override
+    public int compareTo(EdgeWritable o) {
+        if (u != o.u)
+            return u < o.u ? -1 : 1;
+        if (v != o.v)
+            return v < o.v ? -1 : 1;
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof EdgeWritable))
+            return false;
+        EdgeWritable e = (EdgeWritable) o;
+        return u == e.u && v == e.v;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = u * 0x9E3779B97F4A7C15L + v;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return u + "," + v;
+    }
+
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(EdgeWritable.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                long u1 = readVLong(b1, s1);
+                long u2 = readVLong(b2, s2);
+                if (u1 != u2)
+                    return u1 < u2 ? -1 : 1;
+                long v1 = readVLong(b1, s1 + WritableUtils.decodeVIntSize(b1[s1]));
+                long v2 = readVLong(b2, s2 + WritableUtils.decodeVIntSize(b2[s2]));
+                if (v1 != v2)
+                    return v1 < v2 ? -1 : 1;
+                return 0;
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    static {
+        WritableComparator.define(EdgeWritable.class, new Comparator());
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.conf.*;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.util.*;
+
+/**
+ * 单机多线程的三角形计数，适用于能整个放进内存的图。
+ * <p>
+ * 读入与TriangleCounter相同格式的边表，把顶点编号压缩为连续的int，去重后按 (度数, 顶点编号)
+ * 排出每个顶点的秩，每条边从秩小的顶点指向秩大的顶点，存成CSR（offsets + targets两个int数组）。
+ * 每个三角形恰好在它秩最小的顶点上被计数一次：对每条有向边 (u, v) 求u和v出边表的交集大小，
+ * 出边表都是有序的，用归并求交；按顶点区间用fork-join并行
+ */
+public class LocalTriangleCounter
+{
+    /** 一个fork-join任务最多处理的有向边数，超过则对半拆分 **/
+    static final int SPLIT_EDGES = 1 << 16;
+
+    int vertices;
+    int []offsets;
+    int []targets;
+
+    /** 读入所有边，返回每条边的两个端点，src[i] - dst[i] 为第i条边，已去掉自环 **/
+    static long[][] readEdges(Configuration conf, Path input) throws IOException
+    {
+        FileSystem fs = input.getFileSystem(conf);
+        long []src = new long[1 << 16];
+        long []dst = new long[1 << 16];
+        int size = 0;
+        Text line = new Text();
+        ByteTokenizer tokenizer = new ByteTokenizer();
+        for (FileStatus file: fs.listStatus(input)) {
+            String name = file.getPath().getName();
+            if (file.isDir() || name.startsWith("_") || name.startsWith("."))
+                continue;
+            LineReader reader = new LineReader(fs.open(file.getPath()), conf);
+            try {
+                while (reader.readLine(line) > 0) {
+                    tokenizer.reset(line);
+                    if (!tokenizer.next())
+                        continue;
+                    long e1 = tokenizer.parseLong();
+                    if (!tokenizer.next())
+                        throw new IOException("invalid edge line " + line);
+                    long e2 = tokenizer.parseLong();
+                    if (e1 == e2)
+                        continue;
+                    if (src.length == size) {
+                        src = Arrays.copyOf(src, size*2);
+                        dst = Arrays.copyOf(dst, size*2);
+                    }
+                    src[size] = e1;
+                    dst[size] = e2;
+                    ++size;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return new long[][] { Arrays.copyOf(src, size), Arrays.copyOf(dst, size) };
+    }
+
+    /** 把原始顶点编号映射为 0..n-1，结果按原编号升序 **/
+    static long[] distinctVertices(long []src, long []dst)
+    {
+        long []ids = new long[src.length + dst.length];
+        System.arraycopy(src, 0, ids, 0, src.length);
+        System.arraycopy(dst, 0, ids, src.length, dst.length);
+        Arrays.sort(ids);
+        int n = 0;
+        for (int i = 0; i < ids.length; ++i) {
+            if (i == 0 || ids[i] != ids[i-1])
+                ids[n++] = ids[i];
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /** 从边表构造按度数定向的CSR **/
+    public void build(long []src, long []dst)
+    {
+        long []ids = distinctVertices(src, dst);
+        vertices = ids.length;
+
+        // 无向边编码为 (较小编号 << 32 | 较大编号)，排序去重
+        long []edges = new long[src.length];
+        for (int i = 0; i < src.length; ++i) {
+            long a = Arrays.binarySearch(ids, src[i]);
+            long b = Arrays.binarySearch(ids, dst[i]);
+            edges[i] = a < b ? (a << 32 | b) : (b << 32 | a);
+        }
+        Arrays.sort(edges);
+        int m = 0;
+        for (int i = 0; i < edges.length; ++i) {
+            if (i == 0 || edges[i] != edges[i-1])
+                edges[m++] = edges[i];
+        }
+
+        int []degree = new int[vertices];
+        for (int i = 0; i < m; ++i) {
+            ++degree[(int) (edges[i] >>> 32)];
+            ++degree[(int) edges[i]];
+        }
+
+        // 按 (度数, 编号) 排序得到每个顶点的秩，编号已是连续的，因此与原编号顺序一致
+        long []order = new long[vertices];
+        for (int i = 0; i < vertices; ++i)
+            order[i] = (long) degree[i] << 32 | i;
+        Arrays.sort(order);
+        int []rank = new int[vertices];
+        for (int i = 0; i < vertices; ++i)
+            rank[(int) order[i]] = i;
+
+        // 以秩为顶点编号构造CSR，边从秩小的指向秩大的
+        offsets = new int[vertices + 1];
+        for (int i = 0; i < m; ++i) {
+            int a = rank[(int) (edges[i] >>> 32)];
+            int b = rank[(int) edges[i]];
+            ++offsets[Math.min(a, b) + 1];
+        }
+        for (int i = 0; i < vertices; ++i)
+            offsets[i+1] += offsets[i];
+        targets = new int[m];
+        int []fill = Arrays.copyOf(offsets, vertices);
+        for (int i = 0; i < m; ++i) {
+            int a = rank[(int) (edges[i] >>> 32)];
+            int b = rank[(int) edges[i]];
+            if (a < b) targets[fill[a]++] = b;
+            else targets[fill[b]++] = a;
+        }
+        for (int i = 0; i < vertices; ++i)
+            Arrays.sort(targets, offsets[i], offsets[i+1]);
+    }
+
+    /** 两个有序区间的交集大小 **/
+    static long intersect(int []a, int i, int iEnd, int j, int jEnd)
+    {
+        long c = 0;
+        while (i < iEnd && j < jEnd) {
+            if (a[i] < a[j]) ++i;
+            else if (a[i] > a[j]) ++j;
+            else {
+                ++c;
+                ++i;
+                ++j;
+            }
+        }
+        return c;
+    }
+
+    /** 统计秩在 [lo, hi) 内的顶点上的三角形 **/
+    long countRange(int lo, int hi)
+    {
+        long count = 0;
+        for (int u = lo; u < hi; ++u) {
+            for (int k = offsets[u]; k < offsets[u+1]; ++k) {
+                int v = targets[k];
+                count += intersect(targets, k + 1, offsets[u+1], offsets[v], offsets[v+1]);
+            }
+        }
+        return count;
+    }
+
+    class CountTask extends RecursiveTask<Long>
+    {
+        final int lo, hi;
+
+        CountTask(int lo, int hi)
+        {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected Long compute()
+        {
+            if (hi - lo <= 1 || offsets[hi] - offsets[lo] <= SPLIT_EDGES)
+                return countRange(lo, hi);
+            int mid = (lo + hi) >>> 1;
+            CountTask left = new CountTask(lo, mid);
+            left.fork();
+            long right = new CountTask(mid, hi).compute();
+            return right + left.join();
+        }
+    }
+
+    public long count(int threads)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new CountTask(0, vertices));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length < 1) {
+            System.err.println("Usage: LocalTriangleCounter <input> [<threads>]");
+            System.exit(2);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+
+        long start = System.currentTimeMillis();
+        long [][]edges = readEdges(conf, new Path(args[0]));
+        long loaded = System.currentTimeMillis();
+        LocalTriangleCounter counter = new LocalTriangleCounter();
+        counter.build(edges[0], edges[1]);
+        edges = null;
+        long built = System.currentTimeMillis();
+        long triangles = counter.count(threads);
+        long end = System.currentTimeMillis();
+
+        System.out.println(triangles);
+        System.err.println("vertices " + counter.vertices + ", edges " + counter.targets.length
+            + ", load " + (loaded - start) + " ms, build " + (built - loaded)
+            + " ms, count " + (end - built) + " ms with " + threads + " threads");
+    }
+}
@@ -1,7 +1,7 @@
 import java.io.IOException;
 import java.util.*;
 
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.*;
 import org.apache.hadoop.conf.*;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapreduce.*;
@@ -11,22 +11,179 @@ import org.apache.hadoop.util.*;
 
 public class TriangleCounter extends Configured implements Tool
 {
+    /**
+     * 为true时先统计每个顶点的度数，把每条边定向为从度数小的顶点指向度数大的顶点
+     * （度数相同时比较顶点编号），只在出边上生成wedge，避免高度数顶点产生O(d²)个wedge
+     */
+    public static final String DEGREE_ORDER = "trianglecounter.degree.order";
+    /**
+     * 为true时job1把去重后的边单独写到名为 {@value #EDGES} 的输出中，job2的每个mapper把全部边
+     * 读入内存中的有序long数组，在map端直接判断wedge是否闭合，只输出每个task的三角形数，
+     * 不再shuffle所有边和wedge。要求顶点编号在 [0, 2^32) 内，且边表能放进mapper的内存
+     */
+    public static final String MAP_SIDE = "trianglecounter.mapside";
+    /** job1中存放边的named output，也是map端判断时读取的文件名前缀 **/
+    public static final String EDGES = "edges";
+    /** map端判断时边文件所在的目录 **/
+    public static final String EDGES_DIR = "trianglecounter.edges.dir";
+    /**
+     * 为true时额外输出每个顶点的局部三角形数和聚类系数。此时wedge的值为中心顶点编号+1
+     * （0仍表示边），要求顶点编号非负；不能与 {@value #MAP_SIDE} 同时使用
+     */
+    public static final String VERTEX_STATS = "trianglecounter.vertex.stats";
+
+    /** 三角形总数由各个task累加到计数器中，driver直接读取，不再用单独的job求和 **/
+    public static enum TriangleCounters { TRIANGLES }
+
+    /**
+     * 可复用的long数组缓冲，用于在reduce中收集一个顶点的邻居，排序后原地去重，
+     * 不产生装箱的Long对象，高度数顶点也不会带来大量GC
+     */
+    public static class LongBuffer
+    {
+        long []data;
+        int size = 0;
+
+        public LongBuffer(int capacity)
+        {
+            data = new long[capacity];
+        }
+
+        public void clear()
+        {
+            size = 0;
+        }
+
+        public void add(long x)
+        {
+            if (data.length == size)
+                data = Arrays.copyOf(data, size*2);
+            data[size++] = x;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public long get(int i)
+        {
+            return data[i];
+        }
+
+        /** 升序排序并去掉重复值，返回去重后的个数 **/
+        public int sortUnique()
+        {
+            Arrays.sort(data, 0, size);
+            int n = 0;
+            for (int i = 0; i < size; ++i) {
+                if (n == 0 || data[i] != data[n-1])
+                    data[n++] = data[i];
+            }
+            size = n;
+            return n;
+        }
+    }
+
+    /** 读入一条边，按两个方向输出 (u, v) 和 (v, u)，用于统计度数 **/
+    public static class DegreeMapper extends Mapper<LongWritable, Text, LongWritable, LongWritable>
+    {
+        LongWritable mKey = new LongWritable();
+        LongWritable mValue = new LongWritable();
+        ByteTokenizer tokenizer = new ByteTokenizer();
+
+        public void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException
+        {
+            tokenizer.reset(value);
+            if (!tokenizer.next())
+                return;
+            long e1 = tokenizer.parseLong();
+            if (!tokenizer.next())
+                throw new RuntimeException("invalid edge line " + value);
+            long e2 = tokenizer.parseLong();
+            if (e1 == e2)
+                return;
+            mKey.set(e1);
+            mValue.set(e2);
+            context.write(mKey, mValue);
+            mKey.set(e2);
+            mValue.set(e1);
+            context.write(mKey, mValue);
+        }
+    }
+
+    /**
+     * 对顶点u去重邻居得到度数d(u)，对每个邻居v输出 (min(u,v), max(u,v)) -> (u, d(u))，
+     * 这样每条边在下一个job中恰好收到两个端点各自的度数
+     */
+    public static class DegreeReducer extends Reducer<LongWritable, LongWritable, EdgeWritable, EdgeWritable>
+    {
+        EdgeWritable rKey = new EdgeWritable();
+        EdgeWritable rValue = new EdgeWritable();
+        LongBuffer neighbors = new LongBuffer(4096);
+
+        public void reduce(LongWritable key, Iterable<LongWritable> values, Context context)
+            throws IOException, InterruptedException
+        {
+            neighbors.clear();
+            for (LongWritable v: values)
+                neighbors.add(v.get());
+            int degree = neighbors.sortUnique();
+
+            long u = key.get();
+            rValue.set(u, degree);
+            for (int i = 0; i < degree; ++i) {
+                long v = neighbors.get(i);
+                if (u < v) rKey.set(u, v);
+                else rKey.set(v, u);
+                context.write(rKey, rValue);
+            }
+        }
+    }
+
+    /** 按 (度数, 顶点编号) 的顺序定向每条边，输出 源顶点 -> 目标顶点 **/
+    public static class OrientReducer extends Reducer<EdgeWritable, EdgeWritable, LongWritable, LongWritable>
+    {
+        LongWritable rKey = new LongWritable();
+        LongWritable rValue = new LongWritable();
+
+        public void reduce(EdgeWritable key, Iterable<EdgeWritable> values, Context context)
+            throws IOException, InterruptedException
+        {
+            long du = 0, dv = 0;
+            for (EdgeWritable v: values) {
+                if (v.getU() == key.getU()) du = v.getV();
+                else dv = v.getV();
+            }
+            // key中u < v，度数相同时u在前
+            if (du <= dv) {
+                rKey.set(key.getU());
+                rValue.set(key.getV());
+            } else {
+                rKey.set(key.getV());
+                rValue.set(key.getU());
+            }
+            context.write(rKey, rValue);
+        }
+    }
+
     public static class ProcessDataMapper extends Mapper<LongWritable, Text, LongWritable, LongWritable>
     {
         LongWritable mKey = new LongWritable();
         LongWritable mValue = new LongWritable();
+        ByteTokenizer tokenizer = new ByteTokenizer();
 
         public void map(LongWritable key, Text value, Context context)
             throws IOException, InterruptedException
         {
-            String line = value.toString();
-            StringTokenizer tokenizer = new StringTokenizer(line);
+            tokenizer.reset(value);
             long e1,e2;
-            if (tokenizer.hasMoreTokens()) {
-                e1 = Long.parseLong(tokenizer.nextToken());
-                if (!tokenizer.hasMoreTokens())
-                    throw new RuntimeException("invalid edge line " + line);
-                e2 = Long.parseLong(tokenizer.nextToken());
+            if (tokenizer.next()) {
+                e1 = tokenizer.parseLong();
+                if (!tokenizer.next())
+                    throw new RuntimeException("invalid edge line " + value);
+                e2 = tokenizer.parseLong();
                 if (e1 == e2)
                 	return;
                 else if (e1 < e2)
@@ -44,180 +201,374 @@ public class TriangleCounter extends Configured implements Tool
         }
     }
     
+    /** 对一个顶点的邻居排序去重，按升序输出 **/
     public static class ProcessDataCombiner extends Reducer<LongWritable,LongWritable,LongWritable,LongWritable>
     {
-    	public void reduce(LongWritable key, Iterable<LongWritable> values, Context context) throws IOException, InterruptedException {
-    		HashSet<Long> hs = new HashSet<Long>();
-    		for (LongWritable v: values) {
-    			Long x = v.get();
-    			if (hs.contains(x)) continue;
-    			hs.add(x);
-    			context.write(key, v);
-    		}
-    	}
+        LongBuffer neighbors = new LongBuffer(4096);
+        LongWritable cValue = new LongWritable();
+
+        public void reduce(LongWritable key, Iterable<LongWritable> values, Context context)
+            throws IOException, InterruptedException
+        {
+            neighbors.clear();
+            for (LongWritable v: values)
+                neighbors.add(v.get());
+            int n = neighbors.sortUnique();
+            for (int i = 0; i < n; ++i) {
+                cValue.set(neighbors.get(i));
+                context.write(key, cValue);
+            }
+        }
     }
-    public static class ProcessDataReducer extends Reducer<LongWritable, LongWritable, Text, LongWritable>
+    public static class ProcessDataReducer extends Reducer<LongWritable, LongWritable, EdgeWritable, VLongWritable>
     {
-        Text rKey = new Text();
-        final static LongWritable zero = new LongWritable((byte)0);
-        final static LongWritable one = new LongWritable((byte)1);
-        long []vArray = new long[4096];
-        int size = 0;
+        EdgeWritable rKey = new EdgeWritable();
+        final static VLongWritable zero = new VLongWritable(0);
+        final static VLongWritable one = new VLongWritable(1);
+        LongBuffer neighbors = new LongBuffer(4096);
+        MultipleOutputs<EdgeWritable, VLongWritable> edges;
+        boolean vertexStats;
+        VLongWritable center = new VLongWritable();
+
+        public void setup(Context context)
+        {
+            if (context.getConfiguration().getBoolean(MAP_SIDE, false))
+                edges = new MultipleOutputs<EdgeWritable, VLongWritable>(context);
+            vertexStats = context.getConfiguration().getBoolean(VERTEX_STATS, false);
+        }
 
-        public void reduce(LongWritable key, Iterable<LongWritable> values, Context context)
+        public void cleanup(Context context)
             throws IOException, InterruptedException
         {
-            Iterator<LongWritable> vs = values.iterator();
-            for (size = 0; vs.hasNext(); ) {
-                if (vArray.length == size) {
-                    vArray = Arrays.copyOf(vArray, vArray.length*2);
-                }
+            if (edges != null) edges.close();
+        }
 
-                long e = vs.next().get();
-                vArray[size++] = e;
+        public void reduce(LongWritable key, Iterable<LongWritable> values, Context context)
+            throws IOException, InterruptedException
+        {
+            // combiner只在各个map task内去重，这里还要去掉来自不同map task的重复边
+            neighbors.clear();
+            for (LongWritable v: values)
+                neighbors.add(v.get());
+            int size = neighbors.sortUnique();
+            long []vArray = neighbors.data;
 
-                rKey.set(key.toString() + "," + Long.toString(e));
-                context.write(rKey, zero);
+            for (int i = 0; i < size; ++i) {
+                long e = vArray[i];
+                // 按度数定向时源顶点不一定是较小的编号，边统一写成 (较小编号, 较大编号)
+                if (key.get() < e) rKey.set(key.get(), e);
+                else rKey.set(e, key.get());
+                if (edges != null) edges.write(EDGES, rKey, zero);
+                else context.write(rKey, zero);
             }
 
-            Arrays.sort(vArray, 0, size);
-
+            VLongWritable wedge = one;
+            if (vertexStats) {
+                center.set(key.get() + 1);
+                wedge = center;
+            }
             for (int i = 0; i < size; ++i) {
                 for (int j = i + 1; j < size; ++j) {
-                    rKey.set(Long.toString(vArray[i]) + "," + Long.toString(vArray[j]));
-                    context.write(rKey, one);
+                    rKey.set(vArray[i], vArray[j]);
+                    context.write(rKey, wedge);
                 }
             }
         }
     }
 
-    public static class ParseTextMapper extends Mapper<LongWritable, Text, Text, LongWritable>
+    /**
+     * 按边汇合边标记(0)和wedge，边存在时每个wedge构成一个三角形，个数累加到计数器。
+     * 输出每个顶点的统计时，对闭合的边 (a, b) 和它的k个中心顶点x，输出 a -> (k, 1)、
+     * b -> (k, 1) 和每个 x -> (1, 0)，即 (三角形数, 度数) 的部分和
+     */
+    public static class TriangleCountReducer extends Reducer<EdgeWritable, VLongWritable, LongWritable, EdgeWritable>
     {
-        Text mKey = new Text();
-        LongWritable mValue = new LongWritable();
+        boolean vertexStats;
+        long []centers = new long[4096];
+        LongWritable rKey = new LongWritable();
+        EdgeWritable rValue = new EdgeWritable();
 
-        public void map(LongWritable key, Text value, Context context)
+        public void setup(Context context)
+        {
+            vertexStats = context.getConfiguration().getBoolean(VERTEX_STATS, false);
+        }
+
+        public void reduce(EdgeWritable key, Iterable<VLongWritable> values, Context context)
             throws IOException, InterruptedException
         {
-            String line = value.toString();
-            StringTokenizer tokenizer = new StringTokenizer(line);
-            if (tokenizer.hasMoreTokens()) {
-                mKey.set(tokenizer.nextToken());
-                if (!tokenizer.hasMoreTokens())
-                    throw new RuntimeException("invalid intermediate line " + line);
-                mValue.set(Long.parseLong(tokenizer.nextToken()));
-                context.write(mKey, mValue);
+            boolean closed = false;
+            int n = 0;
+            for (VLongWritable v: values) {
+                long x = v.get();
+                if (x == 0) {
+                    closed = true;
+                    continue;
+                }
+                if (vertexStats) {
+                    if (centers.length == n)
+                        centers = Arrays.copyOf(centers, n*2);
+                    centers[n] = x - 1;
+                }
+                ++n;
+            }
+            if (!closed) return;
+            if (n > 0) context.getCounter(TriangleCounters.TRIANGLES).increment(n);
+            if (!vertexStats) return;
+
+            rValue.set(n, 1);
+            rKey.set(key.getU());
+            context.write(rKey, rValue);
+            rKey.set(key.getV());
+            context.write(rKey, rValue);
+            rValue.set(1, 0);
+            for (int i = 0; i < n; ++i) {
+                rKey.set(centers[i]);
+                context.write(rKey, rValue);
             }
         }
     }
 
-    public static class TriangleCountReducer extends Reducer<Text, LongWritable, LongWritable, LongWritable>
+    /**
+     * map端判断wedge是否闭合：setup时读入job1输出的全部边，每条边 (u, v) 编码为 u << 32 | v
+     * 存入排序去重后的long数组，对每个wedge二分查找，cleanup时输出本task的三角形数
+     */
+    public static class WedgeCheckMapper extends Mapper<EdgeWritable, VLongWritable, NullWritable, NullWritable>
     {
+        long []edges;
         long count = 0;
-        final static LongWritable zero = new LongWritable(0);
+
+        static long pack(long u, long v) throws IOException
+        {
+            if (u < 0 || u > 0xFFFFFFFFL || v < 0 || v > 0xFFFFFFFFL)
+                throw new IOException("vertex id out of range for " + MAP_SIDE + ": " + u + "," + v);
+            return u << 32 | v;
+        }
+
+        public void setup(Context context)
+            throws IOException, InterruptedException
+        {
+            Configuration conf = context.getConfiguration();
+            Path dir = new Path(conf.get(EDGES_DIR));
+            FileSystem fs = dir.getFileSystem(conf);
+            EdgeWritable edge = new EdgeWritable();
+            VLongWritable flag = new VLongWritable();
+            LongBuffer buffer = new LongBuffer(1 << 16);
+            for (FileStatus file: fs.globStatus(new Path(dir, EDGES + "-*"))) {
+                SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+                try {
+                    while (reader.next(edge, flag))
+                        buffer.add(pack(edge.getU(), edge.getV()));
+                } finally {
+                    reader.close();
+                }
+            }
+            edges = Arrays.copyOf(buffer.data, buffer.sortUnique());
+        }
+
+        public void map(EdgeWritable key, VLongWritable value, Context context)
+            throws IOException, InterruptedException
+        {
+            if (Arrays.binarySearch(edges, pack(key.getU(), key.getV())) >= 0)
+                ++count;
+        }
 
         public void cleanup(Context context)
             throws IOException, InterruptedException
         {
-            LongWritable v = new LongWritable(count);
-            if (count > 0) context.write(zero, v);
+            context.getCounter(TriangleCounters.TRIANGLES).increment(count);
         }
+    }
+
+    /** 累加每个顶点的 (三角形数, 度数) 部分和 **/
+    public static class VertexStatsCombiner extends Reducer<LongWritable, EdgeWritable, LongWritable, EdgeWritable>
+    {
+        EdgeWritable rValue = new EdgeWritable();
 
-        public void reduce(Text key, Iterable<LongWritable> values, Context context)
+        public void reduce(LongWritable key, Iterable<EdgeWritable> values, Context context)
             throws IOException, InterruptedException
         {
-            long c = 0, n = 0;
-            Iterator<LongWritable> vs = values.iterator();
-            while (vs.hasNext()) {
-                c += vs.next().get();
-                ++n;
+            long triangles = 0, degree = 0;
+            for (EdgeWritable v: values) {
+                triangles += v.getU();
+                degree += v.getV();
             }
-            if (c!=n) count += c;
+            rValue.set(triangles, degree);
+            context.write(key, rValue);
         }
     }
 
-    public static class TriangleSumReducer extends Reducer<Text, LongWritable, LongWritable, LongWritable>
+    /** 输出 顶点\t三角形数\t聚类系数，聚类系数为 2T / (d(d-1)) **/
+    public static class VertexStatsReducer extends Reducer<LongWritable, EdgeWritable, LongWritable, Text>
     {
-        public void reduce(Text key, Iterable<LongWritable> values, Context context)
+        Text rValue = new Text();
+
+        public void reduce(LongWritable key, Iterable<EdgeWritable> values, Context context)
             throws IOException, InterruptedException
         {
-            long sum = 0;
-            Iterator<LongWritable> vs = values.iterator();
-            while (vs.hasNext()) {
-                sum += vs.next().get();
+            long triangles = 0, degree = 0;
+            for (EdgeWritable v: values) {
+                triangles += v.getU();
+                degree += v.getV();
             }
-            context.write(new LongWritable(sum), null);
+            double cc = degree < 2 ? 0 : 2.0 * triangles / (degree * (degree - 1));
+            rValue.set(triangles + "\t" + cc);
+            context.write(key, rValue);
         }
     }
     
     public int run(String[] args) throws Exception
     {
+        boolean degreeOrder = getConf().getBoolean(DEGREE_ORDER, false);
+        boolean mapSide = getConf().getBoolean(MAP_SIDE, false);
+        boolean vertexStats = getConf().getBoolean(VERTEX_STATS, false);
+        if (mapSide && vertexStats) {
+            System.err.println(VERTEX_STATS + " cannot be used with " + MAP_SIDE);
+            return 2;
+        }
+        getConf().set(EDGES_DIR, "temp1");
+
+        Job job0 = new Job(getConf());
+        job0.setJobName("degrees");
+
+        job0.setMapOutputKeyClass(LongWritable.class);
+        job0.setMapOutputValueClass(LongWritable.class);
+
+        job0.setOutputKeyClass(EdgeWritable.class);
+        job0.setOutputValueClass(EdgeWritable.class);
+
+        job0.setJarByClass(TriangleCounter.class);
+        job0.setMapperClass(DegreeMapper.class);
+        job0.setCombinerClass(ProcessDataCombiner.class);
+        job0.setReducerClass(DegreeReducer.class);
+
+        job0.setInputFormatClass(TextInputFormat.class);
+        job0.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        FileInputFormat.addInputPath(job0, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job0, new Path("temp_degrees"));
+
+
+        Job jobOrient = new Job(getConf());
+        jobOrient.setJobName("orient edges");
+
+        jobOrient.setMapOutputKeyClass(EdgeWritable.class);
+        jobOrient.setMapOutputValueClass(EdgeWritable.class);
+
+        jobOrient.setOutputKeyClass(LongWritable.class);
+        jobOrient.setOutputValueClass(LongWritable.class);
+
+        jobOrient.setJarByClass(TriangleCounter.class);
+        jobOrient.setMapperClass(Mapper.class);
+        jobOrient.setReducerClass(OrientReducer.class);
+
+        jobOrient.setInputFormatClass(SequenceFileInputFormat.class);
+        jobOrient.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        FileInputFormat.setInputPaths(jobOrient, new Path("temp_degrees"));
+        FileOutputFormat.setOutputPath(jobOrient, new Path("temp_oriented"));
+
+
         Job job1 = new Job(getConf());
         job1.setJobName("process data");
 
         job1.setMapOutputKeyClass(LongWritable.class);
         job1.setMapOutputValueClass(LongWritable.class);
 
-        job1.setOutputKeyClass(Text.class);
-        job1.setOutputValueClass(LongWritable.class);
+        job1.setOutputKeyClass(EdgeWritable.class);
+        job1.setOutputValueClass(VLongWritable.class);
 
         job1.setJarByClass(TriangleCounter.class);
-        job1.setMapperClass(ProcessDataMapper.class);
         job1.setCombinerClass(ProcessDataCombiner.class);
         job1.setReducerClass(ProcessDataReducer.class);
-
-        job1.setInputFormatClass(TextInputFormat.class);
-        job1.setOutputFormatClass(TextOutputFormat.class);
-
-        FileInputFormat.addInputPath(job1, new Path(args[0]));
+        job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        if (degreeOrder) {
+            // 定向后的边已经是 源顶点 -> 目标顶点，直接按源顶点分组
+            job1.setMapperClass(Mapper.class);
+            job1.setInputFormatClass(SequenceFileInputFormat.class);
+            FileInputFormat.setInputPaths(job1, new Path("temp_oriented"));
+        } else {
+            job1.setMapperClass(ProcessDataMapper.class);
+            job1.setInputFormatClass(TextInputFormat.class);
+            FileInputFormat.addInputPath(job1, new Path(args[0]));
+        }
+        if (mapSide)
+            MultipleOutputs.addNamedOutput(job1, EDGES, SequenceFileOutputFormat.class,
+                EdgeWritable.class, VLongWritable.class);
         FileOutputFormat.setOutputPath(job1, new Path("temp1"));
 
 
         Job job2 = new Job(getConf());
         job2.setJobName("triangles");
 
-        job2.setMapOutputKeyClass(Text.class);
-        job2.setMapOutputValueClass(LongWritable.class);
+        job2.setMapOutputKeyClass(EdgeWritable.class);
+        job2.setMapOutputValueClass(VLongWritable.class);
 
         job2.setOutputKeyClass(LongWritable.class);
-        job2.setOutputValueClass(LongWritable.class);
+        job2.setOutputValueClass(EdgeWritable.class);
 
         job2.setJarByClass(TriangleCounter.class);
-        job2.setMapperClass(ParseTextMapper.class);
-        job2.setReducerClass(TriangleCountReducer.class);
-
-        job2.setInputFormatClass(TextInputFormat.class);
-        job2.setOutputFormatClass(TextOutputFormat.class);
+        if (mapSide) {
+            // temp1中part-*只剩wedge，边在edges-*中，由每个mapper自己读入
+            job2.setMapperClass(WedgeCheckMapper.class);
+            job2.setNumReduceTasks(0);
+            FileInputFormat.setInputPaths(job2, new Path("temp1/part-*"));
+        } else {
+            job2.setMapperClass(Mapper.class);
+            job2.setReducerClass(TriangleCountReducer.class);
+            FileInputFormat.setInputPaths(job2, new Path("temp1"));
+        }
 
-        FileInputFormat.setInputPaths(job2, new Path("temp1"));
-        FileOutputFormat.setOutputPath(job2, new Path("temp2"));
+        job2.setInputFormatClass(SequenceFileInputFormat.class);
+        if (vertexStats) {
+            job2.setOutputFormatClass(SequenceFileOutputFormat.class);
+            FileOutputFormat.setOutputPath(job2, new Path("temp2"));
+        } else {
+            job2.setOutputFormatClass(NullOutputFormat.class);
+        }
 
 
         Job job3 = new Job(getConf());
-        job3.setJobName("count");
+        job3.setJobName("vertex stats");
 
-        job3.setMapOutputKeyClass(Text.class);
-        job3.setMapOutputValueClass(LongWritable.class);
+        job3.setMapOutputKeyClass(LongWritable.class);
+        job3.setMapOutputValueClass(EdgeWritable.class);
 
         job3.setOutputKeyClass(LongWritable.class);
-        job3.setOutputValueClass(LongWritable.class);
+        job3.setOutputValueClass(Text.class);
 
         job3.setJarByClass(TriangleCounter.class);
-        job3.setMapperClass(ParseTextMapper.class);
-        job3.setReducerClass(TriangleSumReducer.class);
-        //job3.setNumReduceTasks(32);
-        
-        job3.setInputFormatClass(TextInputFormat.class);
+        job3.setMapperClass(Mapper.class);
+        job3.setCombinerClass(VertexStatsCombiner.class);
+        job3.setReducerClass(VertexStatsReducer.class);
+
+        job3.setInputFormatClass(SequenceFileInputFormat.class);
         job3.setOutputFormatClass(TextOutputFormat.class);
 
         FileInputFormat.setInputPaths(job3, new Path("temp2"));
         FileOutputFormat.setOutputPath(job3, new Path(args[1]));
 
 
-        int ret = job1.waitForCompletion(true) ? 0 : 1;
+        int ret = 0;
+        if (degreeOrder) {
+            ret = job0.waitForCompletion(true) ? 0 : 1;
+            if (ret == 0) ret = jobOrient.waitForCompletion(true) ? 0 : 1;
+        }
+        if (ret == 0) ret = job1.waitForCompletion(true) ? 0 : 1;
         if (ret == 0) ret = job2.waitForCompletion(true) ? 0 : 1;
-        if (ret == 0) ret = job3.waitForCompletion(true) ? 0 : 1;
-        return ret;
+        if (ret == 0 && vertexStats) ret = job3.waitForCompletion(true) ? 0 : 1;
+        if (ret != 0) return ret;
+
+        long triangles = job2.getCounters().findCounter(TriangleCounters.TRIANGLES).getValue();
+        System.out.println("triangles: " + triangles);
+        Path total = new Path(args[1], "triangles");
+        FSDataOutputStream out = total.getFileSystem(getConf()).create(total, false);
+        try {
+            out.write((triangles + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return 0;
     }
 
     public static void main(String[] args) throws Exception {
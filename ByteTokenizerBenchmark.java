@@ -0,0 +1,159 @@
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * ByteTokenizer与 toString() + StringTokenizer 的对比测试，不依赖测试框架，直接运行main()。
+ * <p>
+ * 生成一批随机文本行和边表行，分别测量：
+ * 分词并把每个词放入可重用的Text（WordCount的mapper）、解析每行的两个long（TriangleCounter的mapper）。
+ * 每组先预热，再取多轮中最快的一轮，输出每行耗时和吞吐量
+ * <p>
+ * Usage: <code>ByteTokenizerBenchmark [lines] [rounds]</code>
+ */
+public class ByteTokenizerBenchmark {
+  /** 防止JIT把没有使用的结果整个消掉 **/
+  static long sink;
+
+  static Text[] words(int lines, Random random) {
+    String[] vocabulary = new String[5000];
+    for (int i = 0; i < vocabulary.length; i++) {
+      StringBuilder w = new StringBuilder();
+      int length = 2 + random.nextInt(10);
+      for (int k = 0; k < length; k++)
+        w.append((char) ('a' + random.nextInt(26)));
+      // 少量非ASCII的词，使toString()需要真正解码UTF-8
+      if (i % 10 == 0)
+        w.append("é中");
+      vocabulary[i] = w.toString();
+    }
+    Text[] text = new Text[lines];
+    for (int i = 0; i < lines; i++) {
+      StringBuilder line = new StringBuilder();
+      int n = 5 + random.nextInt(20);
+      for (int k = 0; k < n; k++)
+        line.append(k == 0 ? "" : (k % 7 == 0 ? "\t" : " "))
+            .append(vocabulary[random.nextInt(vocabulary.length)]);
+      text[i] = new Text(line.toString());
+    }
+    return text;
+  }
+
+  static Text[] edges(int lines, Random random) {
+    Text[] text = new Text[lines];
+    for (int i = 0; i < lines; i++)
+      text[i] = new Text(random.nextInt(5000000) + " " + random.nextInt(5000000));
+    return text;
+  }
+
+  static long bytes(Text[] lines) {
+    long total = 0;
+    for (Text line : lines)
+      total += line.getLength();
+    return total;
+  }
+
+  static long stringTokens(Text[] lines) {
+    Text word = new Text();
+    long count = 0;
+    for (Text line : lines) {
+      StringTokenizer itr = new StringTokenizer(line.toString());
+      while (itr.hasMoreTokens()) {
+        word.set(itr.nextToken());
+        count += word.getLength();
+      }
+    }
+    return count;
+  }
+
+  static long byteTokens(Text[] lines) {
+    Text word = new Text();
+    ByteTokenizer itr = new ByteTokenizer();
+    long count = 0;
+    for (Text line : lines) {
+      itr.reset(line);
+      while (itr.next()) {
+        itr.copyTo(word);
+        count += word.getLength();
+      }
+    }
+    return count;
+  }
+
+  static long stringEdges(Text[] lines) {
+    long sum = 0;
+    for (Text line : lines) {
+      StringTokenizer itr = new StringTokenizer(line.toString());
+      sum += Long.parseLong(itr.nextToken());
+      sum += Long.parseLong(itr.nextToken());
+    }
+    return sum;
+  }
+
+  static long byteEdges(Text[] lines) {
+    ByteTokenizer itr = new ByteTokenizer();
+    long sum = 0;
+    for (Text line : lines) {
+      itr.reset(line);
+      itr.next();
+      sum += itr.parseLong();
+      itr.next();
+      sum += itr.parseLong();
+    }
+    return sum;
+  }
+
+  static long run(int method, Text[] lines) {
+    switch (method) {
+    case 0:
+      return stringTokens(lines);
+    case 1:
+      return byteTokens(lines);
+    case 2:
+      return stringEdges(lines);
+    default:
+      return byteEdges(lines);
+    }
+  }
+
+  /** 预热后运行rounds轮，返回最快一轮的纳秒数 **/
+  static long measure(int method, Text[] lines, int rounds) {
+    for (int i = 0; i < 3; i++)
+      sink += run(method, lines);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      sink += run(method, lines);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  static void report(String name, long nanos, Text[] lines) {
+    System.out.printf("%-28s %8.1f ns/line %8.1f MB/s%n", name,
+        nanos / (double) lines.length, bytes(lines) * 1000.0 / nanos);
+  }
+
+  public static void main(String[] args) {
+    int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    Random random = new Random(42);
+    Text[] text = words(lines, random);
+    Text[] edgeList = edges(lines, random);
+
+    if (run(0, text) != run(1, text) || run(2, edgeList) != run(3, edgeList))
+      throw new IllegalStateException("ByteTokenizer result differs from StringTokenizer");
+
+    long stringWords = measure(0, text, rounds);
+    long byteWords = measure(1, text, rounds);
+    long stringEdges = measure(2, edgeList, rounds);
+    long byteEdges = measure(3, edgeList, rounds);
+    report("words: StringTokenizer", stringWords, text);
+    report("words: ByteTokenizer", byteWords, text);
+    report("edges: StringTokenizer", stringEdges, edgeList);
+    report("edges: ByteTokenizer", byteEdges, edgeList);
+    System.out.printf("speedup: words %.2fx, edges %.2fx (sink %d)%n",
+        stringWords / (double) byteWords, stringEdges / (double) byteEdges, sink);
+  }
+}
@@ -1,11 +1,12 @@
  
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
@@ -15,22 +16,208 @@ import org.apache.hadoop.util.GenericOptionsParser;
 
 public class WordCount {
 
+  /** 打开in-mapper combining模式的配置项，例如 -D wordcount.inmapper=true **/
+  public static final String INMAPPER = "wordcount.inmapper";
+  /** 每个Mapper内部哈希表占用内存的上限（字节），超过即输出并清空 **/
+  public static final String INMAPPER_FLUSH_BYTES = "wordcount.inmapper.flush.bytes";
+  public static final long DEFAULT_FLUSH_BYTES = 32L * 1024 * 1024;
+
+  public static enum InMapperCounter {
+    FLUSHES_ON_THRESHOLD, FLUSHES_ON_CLEANUP, TABLE_LOOKUPS, TABLE_HITS
+  }
+
   public static class TokenizerMapper extends
       Mapper<Object, Text, Text, IntWritable> {
 
     private final static IntWritable one = new IntWritable(1);
     private Text word = new Text();
-      
+    private ByteTokenizer itr = new ByteTokenizer();
+
     public void map(Object key, Text value, Context context)
         throws IOException, InterruptedException {
-      StringTokenizer itr = new StringTokenizer(value.toString());
-      while (itr.hasMoreTokens()) {
-        word.set(itr.nextToken());
+      itr.reset(value);
+      while (itr.next()) {
+        itr.copyTo(word);
         context.write(word, one);
       }
     }
   }
 
+  /**
+   * 在Mapper内部先用ByteCountTable累加词频，内存达到阈值或cleanup()时才输出，
+   * 这样每个单词在一次flush中只输出一条记录，无需再依赖Combiner
+   */
+  public static class InMapperTokenizerMapper extends
+      Mapper<Object, Text, Text, IntWritable> {
+
+    private Text word = new Text();
+    private IntWritable count = new IntWritable();
+    private ByteTokenizer itr = new ByteTokenizer();
+    private ByteCountTable table;
+    private long flushBytes;
+    private long lookups = 0;
+    private long hits = 0;
+
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      flushBytes = conf.getLong(INMAPPER_FLUSH_BYTES, DEFAULT_FLUSH_BYTES);
+      table = new ByteCountTable(1024);
+    }
+
+    public void map(Object key, Text value, Context context)
+        throws IOException, InterruptedException {
+      itr.reset(value);
+      while (itr.next()) {
+        lookups++;
+        if (table.increment(itr.getBytes(), itr.getStart(), itr.getLength(), 1))
+          hits++;
+        if (table.memoryBytes() >= flushBytes) {
+          flush(context);
+          context.getCounter(InMapperCounter.FLUSHES_ON_THRESHOLD).increment(1);
+        }
+      }
+    }
+
+    public void cleanup(Context context) throws IOException,
+        InterruptedException {
+      flush(context);
+      context.getCounter(InMapperCounter.FLUSHES_ON_CLEANUP).increment(1);
+      context.getCounter(InMapperCounter.TABLE_LOOKUPS).increment(lookups);
+      context.getCounter(InMapperCounter.TABLE_HITS).increment(hits);
+    }
+
+    private void flush(Context context) throws IOException,
+        InterruptedException {
+      for (int slot = 0; slot < table.capacity(); slot++) {
+        if (table.count(slot) == 0)
+          continue;
+        table.key(slot, word);
+        count.set(table.count(slot));
+        context.write(word, count);
+      }
+      table.clear();
+    }
+  }
+
+  /**
+   * 以字节数组为键、int为计数的开放寻址（线性探测）哈希表。
+   * 键的字节统一存放在一个arena数组中，避免为每个单词创建对象
+   */
+  public static class ByteCountTable {
+    private int[] hashes;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] counts; // 0表示空槽
+    private byte[] arena;
+    private int arenaSize = 0;
+    private int size = 0;
+    private int mask;
+
+    public ByteCountTable(int initialCapacity) {
+      int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+      allocate(capacity);
+      arena = new byte[capacity * 8];
+    }
+
+    /** 累加计数，键已存在时返回true **/
+    public boolean increment(byte[] bytes, int start, int length, int delta) {
+      int hash = hash(bytes, start, length);
+      int slot = hash & mask;
+      while (counts[slot] != 0) {
+        if (hashes[slot] == hash && lengths[slot] == length
+            && equalBytes(bytes, start, length, offsets[slot])) {
+          counts[slot] += delta;
+          return true;
+        }
+        slot = (slot + 1) & mask;
+      }
+      if (arenaSize + length > arena.length)
+        arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+      System.arraycopy(bytes, start, arena, arenaSize, length);
+      hashes[slot] = hash;
+      offsets[slot] = arenaSize;
+      lengths[slot] = length;
+      counts[slot] = delta;
+      arenaSize += length;
+      if (++size * 2 > counts.length)
+        rehash();
+      return false;
+    }
+
+    public int capacity() {
+      return counts.length;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int count(int slot) {
+      return counts[slot];
+    }
+
+    public void key(int slot, Text out) {
+      out.set(arena, offsets[slot], lengths[slot]);
+    }
+
+    /**
+     * 估算已存入的单词占用的内存：负载因子不超过1/2，每个单词至少占两个槽，
+     * 每个槽在四个int数组中共16字节，再加上arena中已用的字节。
+     * 按已用量而不是已分配的容量计算，clear()之后不会因为数组没有缩小而立即再次flush
+     */
+    public long memoryBytes() {
+      return 32L * size + arenaSize;
+    }
+
+    public void clear() {
+      Arrays.fill(counts, 0);
+      arenaSize = 0;
+      size = 0;
+    }
+
+    private void allocate(int capacity) {
+      hashes = new int[capacity];
+      offsets = new int[capacity];
+      lengths = new int[capacity];
+      counts = new int[capacity];
+      mask = capacity - 1;
+    }
+
+    private void rehash() {
+      int[] oldHashes = hashes;
+      int[] oldOffsets = offsets;
+      int[] oldLengths = lengths;
+      int[] oldCounts = counts;
+      allocate(oldCounts.length * 2);
+      for (int i = 0; i < oldCounts.length; i++) {
+        if (oldCounts[i] == 0)
+          continue;
+        int slot = oldHashes[i] & mask;
+        while (counts[slot] != 0)
+          slot = (slot + 1) & mask;
+        hashes[slot] = oldHashes[i];
+        offsets[slot] = oldOffsets[i];
+        lengths[slot] = oldLengths[i];
+        counts[slot] = oldCounts[i];
+      }
+    }
+
+    private boolean equalBytes(byte[] bytes, int start, int length, int offset) {
+      for (int i = 0; i < length; i++) {
+        if (bytes[start + i] != arena[offset + i])
+          return false;
+      }
+      return true;
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+      int h = 1;
+      for (int i = start; i < start + length; i++)
+        h = 31 * h + bytes[i];
+      return h ^ (h >>> 16);
+    }
+  }
+
   public static class IntSumReducer extends
       Reducer<Text, IntWritable, Text, IntWritable> {
     private IntWritable result = new IntWritable();
@@ -51,18 +238,41 @@ public class WordCount {
     String[] otherArgs =
         new GenericOptionsParser(conf, args).getRemainingArgs();
     if (otherArgs.length != 2) {
-      System.err.println("Usage: wordcount <in> <out>");
+      System.err.println("Usage: wordcount [-D " + INMAPPER + "=true] <in> <out>");
       System.exit(2);
     }
+    boolean inMapper = conf.getBoolean(INMAPPER, false);
     Job job = new Job(conf, "word count");
     job.setJarByClass(WordCount.class);
-    job.setMapperClass(TokenizerMapper.class);
-    job.setCombinerClass(IntSumReducer.class);
+    if (inMapper) {
+      job.setMapperClass(InMapperTokenizerMapper.class);
+    } else {
+      job.setMapperClass(TokenizerMapper.class);
+      job.setCombinerClass(IntSumReducer.class);
+    }
     job.setReducerClass(IntSumReducer.class);
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(IntWritable.class);
     FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
     FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
-    System.exit(job.waitForCompletion(true) ? 0 : 1);
+    boolean success = job.waitForCompletion(true);
+    if (success && inMapper) {
+      Counters counters = job.getCounters();
+      long lookups = counters.findCounter(InMapperCounter.TABLE_LOOKUPS).getValue();
+      long hits = counters.findCounter(InMapperCounter.TABLE_HITS).getValue();
+      long flushes = counters.findCounter(InMapperCounter.FLUSHES_ON_THRESHOLD).getValue();
+      System.out.println("in-mapper flush threshold: "
+          + conf.getLong(INMAPPER_FLUSH_BYTES, DEFAULT_FLUSH_BYTES) + " bytes");
+      System.out.println("in-mapper table hit rate: "
+          + (lookups == 0 ? 0.0 : hits / (double) lookups));
+      System.out.println("in-mapper threshold flushes: " + flushes + " for "
+          + lookups + " tokens");
+      // 每次flush至少应合并上百个单词，否则in-mapper combining没有起作用
+      if (flushes * 100 > lookups)
+        System.err.println("WARNING: in-mapper table flushed " + flushes
+            + " times for " + lookups + " tokens, " + INMAPPER_FLUSH_BYTES
+            + " is too small");
+    }
+    System.exit(success ? 0 : 1);
   }
 }
@@ -1,21 +1,61 @@
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class MatrixMultiply {
   /** mapper和reducer需要的三个必要变量，由conf.get()方法得到 **/
   public static int rowM = 0;
   public static int columnM = 0;
   public static int columnN = 0;
+  /** 大于0时按 b×b 的块相乘 **/
+  public static final String BLOCK_SIZE = "matrixmultiply.block.size";
+  /** 为true时输入为只含非零元素的坐标表，按稀疏向量相乘，只输出非零的乘积元素 **/
+  public static final String SPARSE = "matrixmultiply.sparse";
+  /** 稀疏模式中M的非空行号的named output **/
+  public static final String ROWS = "rows";
+  /** M的非空行号所在的目录 **/
+  public static final String ROWS_DIR = "matrixmultiply.rows.dir";
+  /** 为true时分两个job：先按中间维j连接M和N输出部分积，再按 (i, k) 求和 **/
+  public static final String TWO_PHASE = "matrixmultiply.twophase";
+
+  /** 解析一行 "i,j\tvalue"，行列号写入index，返回value部分；空行返回null **/
+  static String parseCell(String line, int[] index) {
+    int comma = line.indexOf(',');
+    if (comma < 0)
+      return null;
+    int tab = line.indexOf('\t', comma);
+    index[0] = Integer.parseInt(line.substring(0, comma).trim());
+    index[1] = Integer.parseInt(line.substring(comma + 1, tab).trim());
+    return line.substring(tab + 1).trim();
+  }
 
   public static class MatrixMapper extends Mapper<Object, Text, Text, Text> {
     private Text map_key = new Text();
@@ -96,13 +136,761 @@ public class MatrixMultiply {
     }
   }
 
+  /**
+   * 分块模式的key：乘积块的行块号I、列块号K，中间维的块号J，以及来自哪个矩阵（M为0，N为1）。
+   * 4个非负int按大端序列化，字节序与数值序一致，直接比较字节；
+   * 按 (I, K) 分区和分组，同一组内按J排序，每个J先到M块再到N块
+   */
+  public static class TileKey implements WritableComparable<TileKey> {
+    public static final int M = 0;
+    public static final int N = 1;
+    private int row;
+    private int column;
+    private int inner;
+    private int matrix;
+
+    public void set(int row, int column, int inner, int matrix) {
+      this.row = row;
+      this.column = column;
+      this.inner = inner;
+      this.matrix = matrix;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public int getColumn() {
+      return column;
+    }
+
+    public int getInner() {
+      return inner;
+    }
+
+    public int getMatrix() {
+      return matrix;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(row);
+      out.writeInt(column);
+      out.writeInt(inner);
+      out.writeInt(matrix);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      row = in.readInt();
+      column = in.readInt();
+      inner = in.readInt();
+      matrix = in.readInt();
+    }
+
+    @Override
+    public int compareTo(TileKey o) {
+      if (row != o.row)
+        return row < o.row ? -1 : 1;
+      if (column != o.column)
+        return column < o.column ? -1 : 1;
+      if (inner != o.inner)
+        return inner < o.inner ? -1 : 1;
+      return matrix - o.matrix;
+    }
+
+    @Override
+    public int hashCode() {
+      return row * 163 + column;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof TileKey && compareTo((TileKey) o) == 0;
+    }
+
+    public static class Comparator extends WritableComparator {
+      public Comparator() {
+        super(TileKey.class);
+      }
+
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return compareBytes(b1, s1, l1, b2, s2, l2);
+      }
+    }
+
+    /** 只比较 (I, K)，同一个乘积块的所有值进入一次reduce **/
+    public static class GroupComparator extends WritableComparator {
+      public GroupComparator() {
+        super(TileKey.class);
+      }
+
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return compareBytes(b1, s1, 8, b2, s2, 8);
+      }
+    }
+
+    static {
+      WritableComparator.define(TileKey.class, new Comparator());
+    }
+  }
+
+  /** 块内的一个元素：块内行号、列号和值 **/
+  public static class TileEntry implements Writable {
+    private int row;
+    private int column;
+    private double value;
+
+    public void set(int row, int column, double value) {
+      this.row = row;
+      this.column = column;
+      this.value = value;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, row);
+      WritableUtils.writeVInt(out, column);
+      out.writeDouble(value);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      row = WritableUtils.readVInt(in);
+      column = WritableUtils.readVInt(in);
+      value = in.readDouble();
+    }
+  }
+
+  /** 整数值按整数输出，与原来的输出格式相同，否则按double输出 **/
+  static String formatValue(double v) {
+    if (v == Math.rint(v) && Math.abs(v) < 1e15)
+      return Long.toString((long) v);
+    return Double.toString(v);
+  }
+
+  public static class TilePartitioner extends Partitioner<TileKey, TileEntry> {
+    @Override
+    public int getPartition(TileKey key, TileEntry value, int numPartitions) {
+      return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+
+  /**
+   * M的元素 (i, j) 只复制到乘积的每个列块 (I, K)，N的元素 (j, k) 只复制到每个行块，
+   * 复制次数从columnN、rowM降为它们的1/b
+   */
+  public static class TileMapper extends Mapper<Object, Text, TileKey, TileEntry> {
+    private TileKey tileKey = new TileKey();
+    private TileEntry entry = new TileEntry();
+    private int[] index = new int[2];
+    private int block;
+    private int rowBlocks;
+    private int columnBlocks;
+    private boolean isM;
+
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      block = conf.getInt(BLOCK_SIZE, 0);
+      rowBlocks = (conf.getInt("rowM", 0) + block - 1) / block;
+      columnBlocks = (conf.getInt("columnN", 0) + block - 1) / block;
+      String fileName = ((FileSplit) context.getInputSplit()).getPath().getName();
+      isM = fileName.contains("M");
+    }
+
+    public void map(Object key, Text value, Context context)
+        throws IOException, InterruptedException {
+      String cell = parseCell(value.toString(), index);
+      if (cell == null)
+        return;
+      double v = Double.parseDouble(cell);
+      // 输入的行列号从1开始
+      int r = index[0] - 1;
+      int c = index[1] - 1;
+      entry.set(r % block, c % block, v);
+      if (isM) {
+        for (int k = 0; k < columnBlocks; k++) {
+          tileKey.set(r / block, k, c / block, TileKey.M);
+          context.write(tileKey, entry);
+        }
+      } else {
+        for (int i = 0; i < rowBlocks; i++) {
+          tileKey.set(i, c / block, r / block, TileKey.N);
+          context.write(tileKey, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * 按J的顺序依次收到M(I, J)和N(J, K)两个块，填入稠密数组后累加到乘积块C(I, K)；
+   * 按 i-j-k 的顺序相乘，最内层循环连续访问N块和C块的同一行，M块中的0直接跳过
+   */
+  public static class TileReducer extends Reducer<TileKey, TileEntry, Text, Text> {
+    private int block;
+    private int rowM;
+    private int columnN;
+    private double[] a;
+    private double[] b;
+    private double[] c;
+    private Text outKey = new Text();
+    private Text outValue = new Text();
+
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      block = conf.getInt(BLOCK_SIZE, 0);
+      rowM = conf.getInt("rowM", 0);
+      columnN = conf.getInt("columnN", 0);
+      a = new double[block * block];
+      b = new double[block * block];
+      c = new double[block * block];
+    }
+
+    private void multiply() {
+      for (int i = 0; i < block; i++) {
+        int rowA = i * block;
+        for (int j = 0; j < block; j++) {
+          double x = a[rowA + j];
+          if (x == 0)
+            continue;
+          int rowB = j * block;
+          for (int k = 0; k < block; k++)
+            c[rowA + k] += x * b[rowB + k];
+        }
+      }
+    }
+
+    public void reduce(TileKey key, Iterable<TileEntry> values, Context context)
+        throws IOException, InterruptedException {
+      int tileRow = key.getRow();
+      int tileColumn = key.getColumn();
+      Arrays.fill(c, 0);
+      int inner = -1;
+      // 遍历values时key随之更新为当前值对应的key
+      for (TileEntry value : values) {
+        if (key.getInner() != inner) {
+          if (inner >= 0)
+            multiply();
+          Arrays.fill(a, 0);
+          Arrays.fill(b, 0);
+          inner = key.getInner();
+        }
+        if (key.getMatrix() == TileKey.M)
+          a[value.row * block + value.column] += value.value;
+        else
+          b[value.row * block + value.column] += value.value;
+      }
+      if (inner >= 0)
+        multiply();
+
+      int rows = Math.min(block, rowM - tileRow * block);
+      int columns = Math.min(block, columnN - tileColumn * block);
+      for (int i = 0; i < rows; i++) {
+        for (int k = 0; k < columns; k++) {
+          outKey.set((tileRow * block + i + 1) + "," + (tileColumn * block + k + 1));
+          outValue.set(formatValue(c[i * block + k]));
+          context.write(outKey, outValue);
+        }
+      }
+    }
+  }
+
+  /**
+   * 稀疏向量：编号id（M的行号或N的列号），以及size个 (下标, 值)，
+   * 下标和值存放在两个基本类型数组中；序列化时下标按差值vint编码
+   */
+  public static class SparseVector implements Writable {
+    private int id;
+    private int size = 0;
+    private int[] index = new int[16];
+    private double[] value = new double[16];
+
+    public void clear(int id) {
+      this.id = id;
+      size = 0;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void add(int i, double v) {
+      if (size == index.length) {
+        index = Arrays.copyOf(index, size * 2);
+        value = Arrays.copyOf(value, size * 2);
+      }
+      index[size] = i;
+      value[size++] = v;
+    }
+
+    public void addAll(SparseVector other) {
+      for (int t = 0; t < other.size; t++)
+        add(other.index[t], other.value[t]);
+    }
+
+    /** 按下标排序，合并相同下标的值并去掉0 **/
+    public void normalize() {
+      long[] order = new long[size];
+      for (int t = 0; t < size; t++)
+        order[t] = (long) index[t] << 32 | t;
+      Arrays.sort(order);
+      int[] sortedIndex = new int[Math.max(16, size)];
+      double[] sortedValue = new double[sortedIndex.length];
+      int n = 0;
+      for (int t = 0; t < size; t++) {
+        int i = (int) (order[t] >>> 32);
+        double v = value[(int) order[t]];
+        if (n > 0 && sortedIndex[n - 1] == i)
+          sortedValue[n - 1] += v;
+        else {
+          sortedIndex[n] = i;
+          sortedValue[n++] = v;
+        }
+      }
+      size = 0;
+      for (int t = 0; t < n; t++) {
+        if (sortedValue[t] != 0) {
+          sortedIndex[size] = sortedIndex[t];
+          sortedValue[size++] = sortedValue[t];
+        }
+      }
+      index = sortedIndex;
+      value = sortedValue;
+    }
+
+    public void set(SparseVector other) {
+      clear(other.id);
+      addAll(other);
+    }
+
+    /** 两个按下标排序的向量归并求内积，hit[0]记录是否有共同的下标 **/
+    public double dot(SparseVector other, boolean[] hit) {
+      double sum = 0;
+      hit[0] = false;
+      int a = 0, b = 0;
+      while (a < size && b < other.size) {
+        if (index[a] < other.index[b])
+          a++;
+        else if (index[a] > other.index[b])
+          b++;
+        else {
+          sum += value[a++] * other.value[b++];
+          hit[0] = true;
+        }
+      }
+      return sum;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, id);
+      WritableUtils.writeVInt(out, size);
+      int last = 0;
+      for (int t = 0; t < size; t++) {
+        WritableUtils.writeVInt(out, index[t] - last);
+        last = index[t];
+        out.writeDouble(value[t]);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      id = WritableUtils.readVInt(in);
+      int n = WritableUtils.readVInt(in);
+      if (index.length < n) {
+        index = new int[n];
+        value = new double[n];
+      }
+      size = n;
+      int last = 0;
+      for (int t = 0; t < n; t++) {
+        last += WritableUtils.readVInt(in);
+        index[t] = last;
+        value[t] = in.readDouble();
+      }
+    }
+  }
+
+  /** M的行向量标记为0，N的列向量标记为1，key为 (标记 << 32 | 行号或列号) **/
+  static long vectorKey(int tag, int id) {
+    return (long) tag << 32 | id;
+  }
+
+  /** 把M的元素 (i, j, v) 发给第i行，N的元素 (j, k, v) 发给第k列，值为只含一个元素的稀疏向量 **/
+  public static class VectorMapper extends
+      Mapper<Object, Text, LongWritable, SparseVector> {
+    private LongWritable outKey = new LongWritable();
+    private SparseVector entry = new SparseVector();
+    private int[] index = new int[2];
+    private boolean isM;
+
+    public void setup(Context context) {
+      String fileName = ((FileSplit) context.getInputSplit()).getPath().getName();
+      isM = fileName.contains("M");
+    }
+
+    public void map(Object key, Text value, Context context)
+        throws IOException, InterruptedException {
+      String cell = parseCell(value.toString(), index);
+      if (cell == null)
+        return;
+      double v = Double.parseDouble(cell);
+      if (v == 0)
+        return;
+      if (isM) {
+        outKey.set(vectorKey(0, index[0]));
+        entry.clear(index[0]);
+        entry.add(index[1], v);
+      } else {
+        outKey.set(vectorKey(1, index[1]));
+        entry.clear(index[1]);
+        entry.add(index[0], v);
+      }
+      context.write(outKey, entry);
+    }
+  }
+
+  /** 把同一行（列）的元素拼成一个向量 **/
+  public static class VectorCombiner extends
+      Reducer<LongWritable, SparseVector, LongWritable, SparseVector> {
+    protected SparseVector vector = new SparseVector();
+
+    public void reduce(LongWritable key, Iterable<SparseVector> values, Context context)
+        throws IOException, InterruptedException {
+      vector.clear((int) key.get());
+      for (SparseVector value : values)
+        vector.addAll(value);
+      vector.normalize();
+      if (vector.size() > 0)
+        context.write(key, vector);
+    }
+  }
+
+  /** 与combiner相同，另外把M的非空行号写到 {@value #ROWS}，第二个job只把N的列发给这些行 **/
+  public static class VectorReducer extends VectorCombiner {
+    private MultipleOutputs<LongWritable, SparseVector> rows;
+    private IntWritable row = new IntWritable();
+
+    public void setup(Context context) {
+      rows = new MultipleOutputs<LongWritable, SparseVector>(context);
+    }
+
+    public void reduce(LongWritable key, Iterable<SparseVector> values, Context context)
+        throws IOException, InterruptedException {
+      super.reduce(key, values, context);
+      if ((key.get() >>> 32) == 0 && vector.size() > 0) {
+        row.set(vector.getId());
+        rows.write(ROWS, row, NullWritable.get());
+      }
+    }
+
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      rows.close();
+    }
+  }
+
+  /**
+   * M的第i行只发给第i组一次，N的每一列只发给M中不全为0的行，shuffle约为 非空行数×nnz(N)，
+   * M的大多数行都非空时应改用两阶段模式；key为 (i << 1 | 标记)，同一组内M的行排在N的列之前
+   */
+  public static class SparseMultiplyMapper extends
+      Mapper<LongWritable, SparseVector, LongWritable, SparseVector> {
+    private LongWritable outKey = new LongWritable();
+    private int[] rows;
+
+    public void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      Path dir = new Path(conf.get(ROWS_DIR));
+      FileSystem fs = dir.getFileSystem(conf);
+      rows = new int[1024];
+      int size = 0;
+      IntWritable row = new IntWritable();
+      for (FileStatus file : fs.globStatus(new Path(dir, ROWS + "-*"))) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+        try {
+          while (reader.next(row, NullWritable.get())) {
+            if (size == rows.length)
+              rows = Arrays.copyOf(rows, size * 2);
+            rows[size++] = row.get();
+          }
+        } finally {
+          reader.close();
+        }
+      }
+      rows = Arrays.copyOf(rows, size);
+    }
+
+    public void map(LongWritable key, SparseVector value, Context context)
+        throws IOException, InterruptedException {
+      if ((key.get() >>> 32) == 0) {
+        outKey.set((long) value.getId() << 1);
+        context.write(outKey, value);
+        return;
+      }
+      for (int i : rows) {
+        outKey.set((long) i << 1 | 1);
+        context.write(outKey, value);
+      }
+    }
+  }
+
+  /** 按 key >>> 1 分区，最低位是标记 **/
+  public static class RowPartitioner<V> extends Partitioner<LongWritable, V> {
+    @Override
+    public int getPartition(LongWritable key, V value, int numPartitions) {
+      return (int) ((key.get() >>> 1) % numPartitions);
+    }
+  }
+
+  /** 只比较 key >>> 1，如M的一行和N的所有列进入同一次reduce **/
+  public static class RowGroupComparator extends WritableComparator {
+    public RowGroupComparator() {
+      super(LongWritable.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      long r1 = readLong(b1, s1) >>> 1;
+      long r2 = readLong(b2, s2) >>> 1;
+      return r1 < r2 ? -1 : (r1 == r2 ? 0 : 1);
+    }
+  }
+
+  /** 先收到M的第i行，之后每收到N的一列就归并求内积，只输出有共同非零下标的 (i, k) **/
+  public static class SparseMultiplyReducer extends
+      Reducer<LongWritable, SparseVector, Text, Text> {
+    private SparseVector row = new SparseVector();
+    private boolean[] hit = new boolean[1];
+    private Text outKey = new Text();
+    private Text outValue = new Text();
+
+    public void reduce(LongWritable key, Iterable<SparseVector> values, Context context)
+        throws IOException, InterruptedException {
+      int i = (int) (key.get() >>> 1);
+      boolean hasRow = false;
+      for (SparseVector value : values) {
+        if ((key.get() & 1) == 0) {
+          row.set(value);
+          hasRow = true;
+          continue;
+        }
+        // M的第i行全为0时没有行向量，N的列都跳过
+        if (!hasRow)
+          return;
+        double sum = row.dot(value, hit);
+        if (!hit[0])
+          continue;
+        outKey.set(i + "," + value.getId());
+        outValue.set(formatValue(sum));
+        context.write(outKey, outValue);
+      }
+    }
+  }
+
+  /** 一个带下标的值：M的元素记录行号i，N的元素记录列号k **/
+  public static class IndexedValue implements Writable {
+    private int index;
+    private double value;
+
+    public void set(int index, double value) {
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, index);
+      out.writeDouble(value);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      index = WritableUtils.readVInt(in);
+      value = in.readDouble();
+    }
+  }
+
+  /** 按中间维j发送：M的 (i, j, v) 的key为 (j << 1)，N的 (j, k, v) 的key为 (j << 1 | 1) **/
+  public static class JoinMapper extends Mapper<Object, Text, LongWritable, IndexedValue> {
+    private LongWritable outKey = new LongWritable();
+    private IndexedValue outValue = new IndexedValue();
+    private int[] index = new int[2];
+    private boolean isM;
+
+    public void setup(Context context) {
+      String fileName = ((FileSplit) context.getInputSplit()).getPath().getName();
+      isM = fileName.contains("M");
+    }
+
+    public void map(Object key, Text value, Context context)
+        throws IOException, InterruptedException {
+      String cell = parseCell(value.toString(), index);
+      if (cell == null)
+        return;
+      double v = Double.parseDouble(cell);
+      if (v == 0)
+        return;
+      if (isM) {
+        outKey.set((long) index[1] << 1);
+        outValue.set(index[0], v);
+      } else {
+        outKey.set((long) index[0] << 1 | 1);
+        outValue.set(index[1], v);
+      }
+      context.write(outKey, outValue);
+    }
+  }
+
+  /**
+   * 同一个j先收到M的第j列，存入两个基本类型数组，之后N的第j行逐个流过，
+   * 输出部分积 <(i << 32 | k), M[i][j] * N[j][k]>；内存只与M的一列有关
+   */
+  public static class JoinReducer extends
+      Reducer<LongWritable, IndexedValue, LongWritable, DoubleWritable> {
+    private int[] rows = new int[1024];
+    private double[] columnValues = new double[1024];
+    private LongWritable outKey = new LongWritable();
+    private DoubleWritable outValue = new DoubleWritable();
+
+    public void reduce(LongWritable key, Iterable<IndexedValue> values, Context context)
+        throws IOException, InterruptedException {
+      int size = 0;
+      for (IndexedValue value : values) {
+        if ((key.get() & 1) == 0) {
+          if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            columnValues = Arrays.copyOf(columnValues, size * 2);
+          }
+          rows[size] = value.index;
+          columnValues[size++] = value.value;
+          continue;
+        }
+        if (size == 0)
+          return;
+        for (int t = 0; t < size; t++) {
+          outKey.set((long) rows[t] << 32 | value.index);
+          outValue.set(columnValues[t] * value.value);
+          context.write(outKey, outValue);
+        }
+      }
+    }
+  }
+
+  /** 在map端先把同一个 (i, k) 的部分积相加 **/
+  public static class SumCombiner extends
+      Reducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+    private DoubleWritable result = new DoubleWritable();
+
+    public void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
+        throws IOException, InterruptedException {
+      double sum = 0;
+      for (DoubleWritable value : values)
+        sum += value.get();
+      result.set(sum);
+      context.write(key, result);
+    }
+  }
+
+  public static class SumReducer extends Reducer<LongWritable, DoubleWritable, Text, Text> {
+    private Text outKey = new Text();
+    private Text outValue = new Text();
+
+    public void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
+        throws IOException, InterruptedException {
+      double sum = 0;
+      for (DoubleWritable value : values)
+        sum += value.get();
+      outKey.set((key.get() >>> 32) + "," + (int) key.get());
+      outValue.set(formatValue(sum));
+      context.write(outKey, outValue);
+    }
+  }
+
+  /** 两阶段模式：按j连接输出部分积，再用combiner和reducer按 (i, k) 求和 **/
+  private static boolean runTwoPhase(Configuration conf, String[] args) throws Exception {
+    Path products = new Path(args[2] + "_products");
+    Job job1 = new Job(conf, "MatrixMultiply Join");
+    job1.setJarByClass(MatrixMultiply.class);
+    job1.setMapperClass(JoinMapper.class);
+    job1.setReducerClass(JoinReducer.class);
+    job1.setPartitionerClass(RowPartitioner.class);
+    job1.setGroupingComparatorClass(RowGroupComparator.class);
+    job1.setMapOutputKeyClass(LongWritable.class);
+    job1.setMapOutputValueClass(IndexedValue.class);
+    job1.setOutputKeyClass(LongWritable.class);
+    job1.setOutputValueClass(DoubleWritable.class);
+    job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.setInputPaths(job1, new Path(args[0]), new Path(args[1]));
+    FileOutputFormat.setOutputPath(job1, products);
+    if (!job1.waitForCompletion(true))
+      return false;
+
+    Job job2 = new Job(conf, "MatrixMultiply Sum");
+    job2.setJarByClass(MatrixMultiply.class);
+    job2.setMapperClass(Mapper.class);
+    job2.setCombinerClass(SumCombiner.class);
+    job2.setReducerClass(SumReducer.class);
+    job2.setMapOutputKeyClass(LongWritable.class);
+    job2.setMapOutputValueClass(DoubleWritable.class);
+    job2.setOutputKeyClass(Text.class);
+    job2.setOutputValueClass(Text.class);
+    job2.setInputFormatClass(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(job2, products);
+    FileOutputFormat.setOutputPath(job2, new Path(args[2]));
+    boolean success = job2.waitForCompletion(true);
+    products.getFileSystem(conf).delete(products, true);
+    return success;
+  }
+
+  /** 稀疏模式：先把坐标表拼成M的行向量和N的列向量，再按行相乘 **/
+  private static boolean runSparse(Configuration conf, String[] args) throws Exception {
+    Path vectors = new Path(args[2] + "_vectors");
+    Job job1 = new Job(conf, "MatrixMultiply Vectors");
+    job1.setJarByClass(MatrixMultiply.class);
+    job1.setMapperClass(VectorMapper.class);
+    job1.setCombinerClass(VectorCombiner.class);
+    job1.setReducerClass(VectorReducer.class);
+    job1.setOutputKeyClass(LongWritable.class);
+    job1.setOutputValueClass(SparseVector.class);
+    job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+    MultipleOutputs.addNamedOutput(job1, ROWS, SequenceFileOutputFormat.class,
+        IntWritable.class, NullWritable.class);
+    FileInputFormat.setInputPaths(job1, new Path(args[0]), new Path(args[1]));
+    FileOutputFormat.setOutputPath(job1, vectors);
+    if (!job1.waitForCompletion(true))
+      return false;
+
+    conf.set(ROWS_DIR, vectors.toString());
+    Job job2 = new Job(conf, "MatrixMultiply Sparse");
+    job2.setJarByClass(MatrixMultiply.class);
+    job2.setMapperClass(SparseMultiplyMapper.class);
+    job2.setReducerClass(SparseMultiplyReducer.class);
+    job2.setPartitionerClass(RowPartitioner.class);
+    job2.setGroupingComparatorClass(RowGroupComparator.class);
+    job2.setMapOutputKeyClass(LongWritable.class);
+    job2.setMapOutputValueClass(SparseVector.class);
+    job2.setOutputKeyClass(Text.class);
+    job2.setOutputValueClass(Text.class);
+    job2.setInputFormatClass(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(job2, new Path(vectors, "part-*"));
+    FileOutputFormat.setOutputPath(job2, new Path(args[2]));
+    boolean success = job2.waitForCompletion(true);
+    vectors.getFileSystem(conf).delete(vectors, true);
+    return success;
+  }
+
   /**
    * main函数
    * <p>
    * Usage:
    * 
    * <p>
-   * <code>MatrixMultiply  inputPathM inputPathN outputPath</code>
+   * <code>MatrixMultiply [-D matrixmultiply.block.size=b | -D matrixmultiply.sparse=true |
+   * -D matrixmultiply.twophase=true] inputPathM inputPathN outputPath</code>
    * 
    * <p>
    * 从输入文件名称中得到矩阵M的行数和列数，以及矩阵N的列数，作为重要参数传递给mapper和reducer
@@ -113,10 +901,12 @@ public class MatrixMultiply {
    */
 
   public static void main(String[] args) throws Exception {
-
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
     if (args.length != 3) {
-      System.err
-          .println("Usage: MatrixMultiply <inputPathM> <inputPathN> <outputPath>");
+      System.err.println("Usage: MatrixMultiply [-D " + BLOCK_SIZE + "=b | -D "
+          + SPARSE + "=true | -D " + TWO_PHASE
+          + "=true] <inputPathM> <inputPathN> <outputPath>");
       System.exit(2);
     } else {
       String[] infoTupleM = args[0].split("_");
@@ -126,16 +916,28 @@ public class MatrixMultiply {
       columnN = Integer.parseInt(infoTupleN[2]);
     }
 
-    Configuration conf = new Configuration();
     /** 设置三个全局共享变量 **/
     conf.setInt("rowM", rowM);
     conf.setInt("columnM", columnM);
     conf.setInt("columnN", columnN);
+    if (conf.getBoolean(SPARSE, false))
+      System.exit(runSparse(conf, args) ? 0 : 1);
+    if (conf.getBoolean(TWO_PHASE, false))
+      System.exit(runTwoPhase(conf, args) ? 0 : 1);
 
     Job job = new Job(conf, "MatrixMultiply");
     job.setJarByClass(MatrixMultiply.class);
-    job.setMapperClass(MatrixMapper.class);
-    job.setReducerClass(MatrixReducer.class);
+    if (conf.getInt(BLOCK_SIZE, 0) > 0) {
+      job.setMapperClass(TileMapper.class);
+      job.setReducerClass(TileReducer.class);
+      job.setMapOutputKeyClass(TileKey.class);
+      job.setMapOutputValueClass(TileEntry.class);
+      job.setPartitionerClass(TilePartitioner.class);
+      job.setGroupingComparatorClass(TileKey.GroupComparator.class);
+    } else {
+      job.setMapperClass(MatrixMapper.class);
+      job.setReducerClass(MatrixReducer.class);
+    }
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(Text.class);
     FileInputFormat.setInputPaths(job, new Path(args[0]), new Path(args[1]));
@@ -3,11 +3,9 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.ArrayList;
-import java.util.TreeSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
@@ -19,7 +17,6 @@ import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
-import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
@@ -41,11 +38,12 @@ public class InvertedIndexer {
   /** 自定义RecordReader **/
   public static class FileNameRecordReader extends RecordReader<Text, Text> {
     String fileName;
+    Text fileNameKey = new Text();
     LineRecordReader lrr = new LineRecordReader();
 
     @Override
     public Text getCurrentKey() throws IOException, InterruptedException {
-      return new Text(fileName);
+      return fileNameKey;
     }
 
     @Override
@@ -58,6 +56,7 @@ public class InvertedIndexer {
         throws IOException, InterruptedException {
       lrr.initialize(arg0, arg1);
       fileName = ((FileSplit) arg0).getPath().getName();
+      fileNameKey.set(fileName);
     }
 
     public void close() throws IOException {
@@ -75,13 +74,17 @@ public class InvertedIndexer {
 
 
   public static class InvertedIndexMapper extends
-      Mapper<Text, Text, Text, IntWritable> {
-    private Set<String> stopwords;
+      Mapper<Text, Text, TermDocWritable, IntWritable> {
+    private final static IntWritable one = new IntWritable(1);
+    private TermDocWritable termDoc = new TermDocWritable();
+    private Set<Text> stopwords;
     private Path[] localFiles;
-    private String pattern = "[^\\w]"; // 正则表达式，代表不是0-9, a-z, A-Z,的所有其它字
+    private ByteTokenizer itr = new ByteTokenizer();
+    private Text word = new Text();
+    private byte[] buffer = new byte[1024];
 
     public void setup(Context context) throws IOException, InterruptedException {
-      stopwords = new TreeSet<String>();
+      stopwords = new HashSet<Text>();
       Configuration conf = context.getConfiguration();
       localFiles = DistributedCache.getLocalCacheFiles(conf); // 获得停词表
       for (int i = 0; i < localFiles.length; i++) {
@@ -91,7 +94,7 @@ public class InvertedIndexer {
         while ((line = br.readLine()) != null) {
           StringTokenizer itr = new StringTokenizer(line);
           while (itr.hasMoreTokens()) {
-            stopwords.add(itr.nextToken());
+            stopwords.add(new Text(itr.nextToken()));
           }
         }
       }
@@ -101,27 +104,39 @@ public class InvertedIndexer {
         throws IOException, InterruptedException {
       // map()函数这里使用自定义的FileNameRecordReader
       // 得到key: filename文件名; value: line_string每一行的内容
-      String temp = new String();
-      String line = value.toString().toLowerCase();
-      line = line.replaceAll(pattern, " "); // 将非0-9, a-z, A-Z的字符替换为空格
-      StringTokenizer itr = new StringTokenizer(line);
-      for (; itr.hasMoreTokens();) {
-        temp = itr.nextToken();
-        if (!stopwords.contains(temp)) {
-          Text word = new Text();
-          word.set(temp + "#" + key);
-          context.write(word, new IntWritable(1));
+      // 把每行的字节复制到缓冲区：大写字母转为小写，不是0-9, a-z, A-Z, _的字节都换成空格，
+      // 与toLowerCase()后用正则 [^\w] 替换的结果相同，再用ByteTokenizer分词
+      int length = value.getLength();
+      if (buffer.length < length)
+        buffer = new byte[Math.max(length, buffer.length * 2)];
+      byte[] bytes = value.getBytes();
+      for (int i = 0; i < length; i++)
+        buffer[i] = wordByte(bytes[i]);
+      itr.reset(buffer, 0, length);
+      while (itr.next()) {
+        itr.copyTo(word);
+        if (!stopwords.contains(word)) {
+          termDoc.set(itr.getBytes(), itr.getStart(), itr.getLength(), key);
+          context.write(termDoc, one);
         }
       }
     }
+
+    private static byte wordByte(byte b) {
+      if (b >= 'A' && b <= 'Z')
+        return (byte) (b + ('a' - 'A'));
+      if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_')
+        return b;
+      return ' ';
+    }
   }
 
   /** 使用Combiner将Mapper的输出结果中value部分的词频进行统计 **/
   public static class SumCombiner extends
-      Reducer<Text, IntWritable, Text, IntWritable> {
+      Reducer<TermDocWritable, IntWritable, TermDocWritable, IntWritable> {
     private IntWritable result = new IntWritable();
 
-    public void reduce(Text key, Iterable<IntWritable> values, Context context)
+    public void reduce(TermDocWritable key, Iterable<IntWritable> values, Context context)
         throws IOException, InterruptedException {
       int sum = 0;
       for (IntWritable val : values) {
@@ -132,71 +147,40 @@ public class InvertedIndexer {
     }
   }
 
-  /** 自定义HashPartitioner，保证 <term, docid>格式的key值按照term分发给Reducer **/
-  public static class NewPartitioner extends HashPartitioner<Text, IntWritable> {
-    public int getPartition(Text key, IntWritable value, int numReduceTasks) {
-      String term = new String();
-      term = key.toString().split("#")[0]; // <term#docid>=>term
-      return super.getPartition(new Text(term), value, numReduceTasks);
-    }
-  }
-
+  /**
+   * 分区由TermDocWritable.TermPartitioner按term完成，分组由TermGroupingComparator只比较term，
+   * 因此一个term的全部<term, docid>在一次reduce()中按docid有序到达，遍历values时key中的docid随之变化
+   */
   public static class InvertedIndexReducer extends
-      Reducer<Text, IntWritable, Text, Text> {
-    private Text word1 = new Text();
-    private Text word2 = new Text();
-    String temp = new String();
-    static Text CurrentItem = new Text(" ");
-    static List<String> postingList = new ArrayList<String>();
-
-    public void reduce(Text key, Iterable<IntWritable> values, Context context)
+      Reducer<TermDocWritable, IntWritable, Text, Text> {
+    private Text doc = new Text();
+    private Text postings = new Text();
+    private StringBuilder out = new StringBuilder();
+
+    public void reduce(TermDocWritable key, Iterable<IntWritable> values, Context context)
         throws IOException, InterruptedException {
-      int sum = 0;
-      word1.set(key.toString().split("#")[0]);
-      temp = key.toString().split("#")[1];
+      out.setLength(0);
+      long count = 0;
+      long sum = 0;
+      boolean first = true;
       for (IntWritable val : values) {
-        sum += val.get();
-      }
-      word2.set("<" + temp + "," + sum + ">");
-      if (!CurrentItem.equals(word1) && !CurrentItem.equals(" ")) {
-        StringBuilder out = new StringBuilder();
-        long count = 0;
-        for (String p : postingList) {
-          out.append(p);
-          out.append(";");
-          count =
-              count
-                  + Long.parseLong(p.substring(p.indexOf(",") + 1,
-                      p.indexOf(">")));
+        if (first || !key.getDoc().equals(doc)) {
+          if (!first)
+            out.append('<').append(doc).append(',').append(sum).append(">;");
+          doc.set(key.getDoc());
+          sum = 0;
+          first = false;
         }
-        out.append("<total," + count + ">.");
-        if (count > 0)
-          context.write(CurrentItem, new Text(out.toString()));
-        postingList = new ArrayList<String>();
+        sum += val.get();
+        count += val.get();
       }
-      CurrentItem = new Text(word1);
-      postingList.add(word2.toString()); // 不断向postingList也就是文档名称中添加词表
-    }
-
-    // cleanup 一般情况默认为空，有了cleanup不会遗漏最后一个单词的情况
-
-    public void cleanup(Context context) throws IOException,
-        InterruptedException {
-      StringBuilder out = new StringBuilder();
-      long count = 0;
-      for (String p : postingList) {
-        out.append(p);
-        out.append(";");
-        count =
-            count
-                + Long
-                    .parseLong(p.substring(p.indexOf(",") + 1, p.indexOf(">")));
+      out.append('<').append(doc).append(',').append(sum).append(">;");
+      out.append("<total,").append(count).append(">.");
+      if (count > 0) {
+        postings.set(out.toString());
+        context.write(key.getTerm(), postings);
       }
-      out.append("<total," + count + ">.");
-      if (count > 0)
-        context.write(CurrentItem, new Text(out.toString()));
     }
-
   }
 
   public static void main(String[] args) throws Exception {
@@ -209,8 +193,10 @@ public class InvertedIndexer {
       job.setMapperClass(InvertedIndexMapper.class);
       job.setCombinerClass(SumCombiner.class);
       job.setReducerClass(InvertedIndexReducer.class);
-      job.setPartitionerClass(NewPartitioner.class);
-      job.setMapOutputKeyClass(Text.class);
+      job.setPartitionerClass(TermDocWritable.TermPartitioner.class);
+      job.setSortComparatorClass(TermDocWritable.Comparator.class);
+      job.setGroupingComparatorClass(TermDocWritable.TermGroupingComparator.class);
+      job.setMapOutputKeyClass(TermDocWritable.class);
       job.setMapOutputValueClass(IntWritable.class);
       job.setOutputKeyClass(Text.class);
       job.setOutputValueClass(Text.class);
@@ -1,146 +1,378 @@
-﻿
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+﻿package CH8;
+
 import java.io.IOException;
 
+import java.util.Arrays;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
+/**
+ * 解析网页并把title编码为连续的int编号，分两个job：
+ * <p>
+ * Graph Builder：mapper解析出链，按title汇集；reducer给每个title分配分区内的局部编号，
+ * 并把它发回给所有链向它的网页。
+ * <p>
+ * Graph Encoder：按网页汇集自身和所有出链的编号，加上各分区的起始偏移得到全局连续编号，
+ * 输出 <id, PageNode> 作为迭代的输入，同时输出 id -> title 的字典，只在PageRankViewer中使用
+ */
 public class GraphBuilder {
-  /** 得到输出 <FromPage, <1.0 ,ToPage1,ToPage2...>> */
+  /** 字典的named output，Graph Encoder结束后移动到字典目录 **/
+  public static final String DICTIONARY = "dictionary";
+  /** 每个Graph Builder reducer分配的编号个数 **/
+  public static final String SIZES = "sizes";
+  /** 各分区编号的起始偏移，逗号分隔 **/
+  public static final String OFFSETS = "pagerank.dictionary.offsets";
+  /** 输入为Wikipedia的XML dump，用XmlPageInputFormat按 &lt;page&gt; 切分 **/
+  public static final String XML_INPUT = "pagerank.input.xml";
+
+  /**
+   * 得到输出 <ToPage, FromPage>，以及 <FromPage, ""> 使没有出链的网页也能被编号。
+   * 输入可以是每行一个网页的文本，也可以是XmlPageInputFormat切出的 &lt;page&gt; 元素（{@value #XML_INPUT}）；
+   * title、正文和链接都直接在Text的字节上单遍扫描，链接写入可重用的缓冲区，不生成中间String
+   */
   public static class GraphBuilderMapper extends
       Mapper<LongWritable, Text, Text, Text> {
-    // 正则表达式，匹配出一对方括号”[]“及其所包含的内容，注意方括号内的内容不含换行符并且至少含有一个字符
-    private static final Pattern wikiLinksPatern = Pattern.compile("\\[.+?\\]");
+    private static final Text PAGE = new Text();
+    private Text page = new Text();
+    private Text link = new Text();
+    private byte[] buffer = new byte[256];
+    private byte[] titleStart;
+    private byte[] titleEnd;
+    private byte[] textStart;
+    private byte[] textEnd;
+
+    public void setup(Context context) {
+      if (context.getConfiguration().getBoolean(XML_INPUT, false)) {
+        titleStart = "<title>".getBytes();
+        titleEnd = "</title>".getBytes();
+        textStart = "<text".getBytes();
+        textEnd = "</text>".getBytes();
+      } else {
+        titleStart = "&lttitle&gt".getBytes();
+        titleEnd = "&lt/title&gt".getBytes();
+        textStart = "&lttext".getBytes();
+        textEnd = "&lt/text&gt".getBytes();
+      }
+    }
 
     public void map(LongWritable key, Text value, Context context)
         throws IOException, InterruptedException {
-      String pagerank = "1.0\t";
-      boolean first = true;
-      String[] titleAndText = parseTitleAndText(value);
-      String pageName = titleAndText[0];
-      Text page = new Text(pageName.replace(',', '_')); // 得到网页的title
-      Matcher matcher = wikiLinksPatern.matcher(titleAndText[1]);
-      while (matcher.find()) {
-        String otherPage = matcher.group();
-
-        // 过滤出只含有wiki内部链接的网页链接//
-        otherPage = getWikiPageFromLink(otherPage);
-        if (otherPage == null || otherPage.isEmpty())
+      byte[] data = value.getBytes();
+      int length = value.getLength();
+      int start = indexOf(data, 0, length, titleStart);
+      if (start < 0)
+        return;
+      start += titleStart.length;
+      int end = indexOf(data, start, length, titleEnd);
+      if (end <= start)
+        return;
+      ensureBuffer(end - start);
+      for (int i = start; i < end; i++)
+        buffer[i - start] = data[i] == ',' ? (byte) '_' : data[i];
+      page.set(buffer, 0, end - start); // 得到网页的title
+      context.write(page, PAGE);
+
+      // 没有正文（如空页面 <text/>）时只编号，不输出出链
+      start = indexOf(data, end, length, textStart);
+      if (start < 0)
+        return;
+      start += textStart.length;
+      end = indexOf(data, start, length, textEnd);
+      if (end < 0)
+        return;
+      scanLinks(data, start, end, context);
+    }
+
+    /**
+     * 依次找出正文中的一对方括号及其内容，与正则 \[.+?\] 的匹配相同：
+     * 方括号内至少有一个字符并且不含换行符
+     */
+    private void scanLinks(byte[] data, int from, int to, Context context)
+        throws IOException, InterruptedException {
+      int i = from;
+      while (i < to) {
+        if (data[i] != '[') {
+          i++;
           continue;
-        StringTokenizer itr = new StringTokenizer(otherPage.toString(), "\n");
-        for (; itr.hasMoreTokens();) {
-          if (!first)
-            pagerank += ",";
-          pagerank += itr.nextToken();
-          first = false;
         }
-
+        int j = i + 1;
+        if (j < to && !isLineEnd(data[j])) {
+          for (j = i + 2; j < to && data[j] != ']' && !isLineEnd(data[j]); j++)
+            ;
+        }
+        if (j >= to)
+          return;
+        if (data[j] != ']') {
+          // 这一行剩下的部分不会再有匹配
+          i = j + 1;
+          continue;
+        }
+        writeLink(data, i, j, context);
+        i = j + 1;
       }
-      context.write(page, new Text(pagerank));
     }
 
-    private String[] parseTitleAndText(Text value) throws IOException {
-      String[] titleAndText = new String[2];
-      int start = value.find("&lttitle&gt");
-      start += 11; // 加上start字符串的长度
-      int end = value.find("&lt/title&gt", start);
-      if (start == -1 || end == -1)
-        return new String[] { "", "" };
-      titleAndText[0] = Text.decode(value.getBytes(), start, end - start); // getBytes()方法得到字符编码方式
+    /** 过滤出只含有wiki内部链接的网页链接，open和close是方括号的位置 **/
+    private void writeLink(byte[] data, int open, int close, Context context)
+        throws IOException, InterruptedException {
+      int start = data[open + 1] == '[' ? open + 2 : open + 1;
+      if (isNotWikiLink(data, open, close, start - open))
+        return;
+      int end = start;
+      while (end < close && data[end] != '|' && data[end] != '#' && data[end] != ']')
+        end++;
+      ensureBuffer(end - start);
+      for (int i = start; i < end; i++)
+        buffer[i - start] = isSpace(data[i]) ? (byte) '_' : data[i]; // 将空白字符（换行、空格等）转换为"_"
+      if (end == start)
+        return;
+      link.set(buffer, 0, end - start);
+      context.write(link, page);
+    }
 
-      start = value.find("&lttext xml:space");
-      start += 17; // 加上start字符串的长度
-      end = value.find("&lt/text&gt", start);
-      if (start == -1 || end == -1)
-        return new String[] { "", "" };
-      titleAndText[1] = Text.decode(value.getBytes(), start, end - start);
-      return titleAndText;
+    /** 判断是否是wiki百科内部的链接，长度按字符数计算 **/
+    private boolean isNotWikiLink(byte[] data, int open, int close, int prefix) {
+      int chars = 0;
+      for (int i = open; i <= close; i++) {
+        if ((data[i] & 0xC0) != 0x80)
+          chars++;
+        if ((data[i] & 0xF8) == 0xF0)
+          chars++; // 四字节的UTF-8字符在String中占两个char
+      }
+      if (chars < prefix + 2 || chars > 100)
+        return true;
+      switch (data[open + prefix]) {
+      case '#':
+      case ',':
+      case '.':
+      case '&':
+      case '\'':
+      case '-':
+      case '{':
+        return true;
+      }
+      for (int i = open; i <= close; i++) {
+        if (data[i] == ':' || data[i] == ',' || data[i] == '&')
+          return true;
+      }
+      return false;
     }
 
-    private String getWikiPageFromLink(String aLink) {
-      if (isNotWikiLink(aLink))
-        return null;
+    private void ensureBuffer(int length) {
+      if (buffer.length < length)
+        buffer = new byte[Math.max(length, buffer.length * 2)];
+    }
 
-      int start = aLink.startsWith("[[") ? 2 : 1;
-      int endLink = aLink.indexOf("]");
+    private static boolean isLineEnd(byte b) {
+      return b == '\n' || b == '\r';
+    }
 
-      int pipePosition = aLink.indexOf("|");
-      if (pipePosition > 0) {
-        endLink = pipePosition;
-      }
+    private static boolean isSpace(byte b) {
+      return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
 
-      int part = aLink.indexOf("#");
-      if (part > 0) {
-        endLink = part;
+    /** 在data[from, to)中查找pattern，找不到返回-1 **/
+    private static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+      int last = to - pattern.length;
+      outer: for (int i = from; i <= last; i++) {
+        for (int k = 0; k < pattern.length; k++) {
+          if (data[i + k] != pattern[k])
+            continue outer;
+        }
+        return i;
       }
+      return -1;
+    }
+  }
+
+  /**
+   * 给每个title分配编号 (分区号 << 32 | 分区内序号)，输出 <title, -编号-1> 标记自身，
+   * 以及对每个链向它的网页输出 <FromPage, 编号>；cleanup时把本分区的编号个数写到 {@value #SIZES}
+   */
+  public static class GraphBuilderReducer extends
+      Reducer<Text, Text, Text, LongWritable> {
+    private MultipleOutputs<Text, LongWritable> sizes;
+    private int partition;
+    private long count = 0;
+    private LongWritable id = new LongWritable();
 
-      aLink = aLink.substring(start, endLink);
-      aLink = aLink.replaceAll("\\s", "_"); // 将空白字符（换行、空格等）转换为"_"
-      aLink = aLink.replaceAll(",", "");
-      if (aLink.contains("&amp;"))
-        aLink.replaceAll("&amp", "&");
-      return aLink;
+    public void setup(Context context) {
+      sizes = new MultipleOutputs<Text, LongWritable>(context);
+      partition = context.getTaskAttemptID().getTaskID().getId();
     }
 
-    /** 判断是否是wiki百科内部的链接 **/
-    private boolean isNotWikiLink(String aLink) {
-      int start = aLink.startsWith("[[") ? 2 : 1;
-      if (aLink.length() < start + 2 || aLink.length() > 100)
-        return true;
-      char firstChar = aLink.charAt(start);
+    public void reduce(Text key, Iterable<Text> values, Context context)
+        throws IOException, InterruptedException {
+      long self = (long) partition << 32 | count++;
+      id.set(-self - 1);
+      context.write(key, id);
+      id.set(self);
+      for (Text from : values) {
+        if (from.getLength() > 0)
+          context.write(from, id);
+      }
+    }
 
-      if (firstChar == '#')
-        return true;
-      if (firstChar == ',')
-        return true;
-      if (firstChar == '.')
-        return true;
-      if (firstChar == '&')
-        return true;
-      if (firstChar == '\'')
-        return true;
-      if (firstChar == '-')
-        return true;
-      if (firstChar == '{')
-        return true;
-      if (aLink.contains(":"))
-        return true;
-      if (aLink.contains(","))
-        return true;
-      if (aLink.contains("&"))
-        return true;
-      return false;
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      sizes.write(SIZES, new IntWritable(partition), new LongWritable(count));
+      sizes.close();
     }
   }
 
-  public static class GraphBuilderReducer extends
-      Reducer<Text, Text, Text, Text> {
-    public void reduce(Text key, Text value, Context context)
+  /** 按网页汇集自身编号和出链编号，输出 <id, PageNode(id, 1.0, 出链)> 和字典 <id, title> */
+  public static class GraphEncoderReducer extends
+      Reducer<Text, LongWritable, IntWritable, PageNode> {
+    private MultipleOutputs<IntWritable, PageNode> dictionary;
+    private long[] offsets;
+    private PageNode node = new PageNode();
+    private IntWritable id = new IntWritable();
+
+    public void setup(Context context) {
+      dictionary = new MultipleOutputs<IntWritable, PageNode>(context);
+      String[] parts = context.getConfiguration().getStrings(OFFSETS);
+      offsets = new long[parts.length];
+      for (int i = 0; i < parts.length; i++)
+        offsets[i] = Long.parseLong(parts[i]);
+    }
+
+    private int globalId(long packed) {
+      return (int) (offsets[(int) (packed >>> 32)] + (packed & 0xFFFFFFFFL));
+    }
+
+    public void reduce(Text key, Iterable<LongWritable> values, Context context)
+        throws IOException, InterruptedException {
+      node.setNode(0, 1.0);
+      for (LongWritable value : values) {
+        long v = value.get();
+        if (v < 0)
+          id.set(globalId(-v - 1));
+        else
+          node.addLink(globalId(v));
+      }
+      node.setId(id.get());
+      node.sortLinks();
+      context.write(id, node);
+      context.getCounter(PageRankIter.PageRankCounter.PAGES).increment(1);
+      if (node.getLinkCount() == 0)
+        context.getCounter(PageRankIter.PageRankCounter.DANGLING).increment(
+            Math.round(node.getRank() * PageRankIter.COUNTER_SCALE));
+      dictionary.write(DICTIONARY, id, key);
+    }
+
+    public void cleanup(Context context)
         throws IOException, InterruptedException {
-      context.write(key, value);
+      dictionary.close();
     }
   }
 
-  public static void main(String[] args) throws Exception {
-      Configuration conf = new Configuration();
+  /** 读出每个分区的编号个数，计算各分区的起始偏移，返回编号总数 **/
+  private static long computeOffsets(Configuration conf, Path links)
+      throws IOException {
+    FileSystem fs = links.getFileSystem(conf);
+    long[] sizes = new long[0];
+    IntWritable partition = new IntWritable();
+    LongWritable count = new LongWritable();
+    for (FileStatus file : fs.globStatus(new Path(links, SIZES + "-*"))) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+      try {
+        while (reader.next(partition, count)) {
+          if (sizes.length <= partition.get())
+            sizes = Arrays.copyOf(sizes, partition.get() + 1);
+          sizes[partition.get()] = count.get();
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    StringBuilder offsets = new StringBuilder();
+    long total = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      if (i > 0)
+        offsets.append(',');
+      offsets.append(total);
+      total += sizes[i];
+    }
+    if (total > Integer.MAX_VALUE)
+      throw new IOException("too many pages for int ids: " + total);
+    conf.set(OFFSETS, offsets.toString());
+    return total;
+  }
+
+  /**
+   * GraphBuilder <input> <graph output> <dictionary output>，返回Graph Encoder job，
+   * 其计数器中有网页总数和没有出链的网页的初始rank之和
+   */
+  public static Job run(Configuration conf, String[] args) throws Exception {
+      conf = new Configuration(conf);
+      Path links = new Path(args[1] + "_links");
       Job job1 = new Job(conf, "Graph Builder");
       job1.setJarByClass(GraphBuilder.class);
+      job1.setMapOutputKeyClass(Text.class);
+      job1.setMapOutputValueClass(Text.class);
       job1.setOutputKeyClass(Text.class);
-      job1.setOutputValueClass(Text.class);
+      job1.setOutputValueClass(LongWritable.class);
       job1.setMapperClass(GraphBuilderMapper.class);
       job1.setReducerClass(GraphBuilderReducer.class);
+      if (conf.getBoolean(XML_INPUT, false))
+        job1.setInputFormatClass(XmlPageInputFormat.class);
+      job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+      MultipleOutputs.addNamedOutput(job1, SIZES, SequenceFileOutputFormat.class,
+          IntWritable.class, LongWritable.class);
       FileInputFormat.addInputPath(job1, new Path(args[0]));
-      FileOutputFormat.setOutputPath(job1, new Path(args[1]));
-      job1.waitForCompletion(true);
+      FileOutputFormat.setOutputPath(job1, links);
+      if (!job1.waitForCompletion(true))
+        return job1;
+
+      long pages = computeOffsets(conf, links);
+      System.out.println("pages: " + pages);
+
+      Job job2 = new Job(conf, "Graph Encoder");
+      job2.setJarByClass(GraphBuilder.class);
+      job2.setMapOutputKeyClass(Text.class);
+      job2.setMapOutputValueClass(LongWritable.class);
+      job2.setOutputKeyClass(IntWritable.class);
+      job2.setOutputValueClass(PageNode.class);
+      job2.setMapperClass(Mapper.class);
+      job2.setReducerClass(GraphEncoderReducer.class);
+      job2.setInputFormatClass(SequenceFileInputFormat.class);
+      job2.setOutputFormatClass(SequenceFileOutputFormat.class);
+      MultipleOutputs.addNamedOutput(job2, DICTIONARY, SequenceFileOutputFormat.class,
+          IntWritable.class, Text.class);
+      FileInputFormat.addInputPath(job2, new Path(links, "part-*"));
+      FileOutputFormat.setOutputPath(job2, new Path(args[1]));
+      if (!job2.waitForCompletion(true))
+        return job2;
+
+      // 字典移到单独的目录，迭代只读取图，之后清理旧的迭代结果时也不会删掉字典
+      FileSystem fs = links.getFileSystem(conf);
+      Path dictionaryDir = new Path(args[2]);
+      fs.mkdirs(dictionaryDir);
+      for (FileStatus file : fs.globStatus(new Path(args[1], DICTIONARY + "-*")))
+        fs.rename(file.getPath(), new Path(dictionaryDir, file.getPath().getName()));
+      fs.delete(links, true);
+      return job2;
   }
-}
 
+  public static void main(String[] args) throws Exception {
+      Configuration conf = new Configuration();
+      args = new GenericOptionsParser(conf, args).getRemainingArgs();
+      System.exit(run(conf, args).isSuccessful() ? 0 : 1);
+  }
+}
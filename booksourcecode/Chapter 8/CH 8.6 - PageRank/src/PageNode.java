@@ -0,0 +1,123 @@
+package CH8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 图中的一个网页：字典编号、PageRank值和出链（出链网页的字典编号），
+ * 代替 "title\trank\tpage1,page2..." 形式的文本。
+ * <p>
+ * 同一个类型也用作迭代中shuffle的消息：出链数为-1时只表示一份rank贡献，不含编号和出链。
+ * 序列化格式：vint出链数（-1表示贡献消息），double rank；完整节点之后是vint编号和
+ * 每个出链与前一个出链编号的vint差值（出链按编号排序时差值很小）
+ */
+public class PageNode implements Writable {
+  private int id;
+  private double rank;
+  private int[] links = new int[8];
+  private int linkCount = -1;
+
+  /** 设为只携带rank贡献的消息 **/
+  public void setContribution(double rank) {
+    this.rank = rank;
+    linkCount = -1;
+  }
+
+  /** 设为不含出链的完整节点，之后用addLink添加出链 **/
+  public void setNode(int id, double rank) {
+    this.id = id;
+    this.rank = rank;
+    linkCount = 0;
+  }
+
+  public boolean isNode() {
+    return linkCount >= 0;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public void setId(int id) {
+    this.id = id;
+  }
+
+  public double getRank() {
+    return rank;
+  }
+
+  public void setRank(double rank) {
+    this.rank = rank;
+  }
+
+  public int getLinkCount() {
+    return linkCount < 0 ? 0 : linkCount;
+  }
+
+  public int getLink(int i) {
+    return links[i];
+  }
+
+  public void addLink(int link) {
+    if (linkCount == links.length)
+      links = Arrays.copyOf(links, linkCount * 2);
+    links[linkCount++] = link;
+  }
+
+  /** 复制另一个节点的出链，编号和rank不变 **/
+  public void setLinks(PageNode other) {
+    int n = other.getLinkCount();
+    if (links.length < n)
+      links = new int[n];
+    System.arraycopy(other.links, 0, links, 0, n);
+    linkCount = n;
+  }
+
+  /** 把出链按编号排序，使序列化后的差值更小 **/
+  public void sortLinks() {
+    Arrays.sort(links, 0, getLinkCount());
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, linkCount);
+    out.writeDouble(rank);
+    if (linkCount < 0)
+      return;
+    WritableUtils.writeVInt(out, id);
+    int last = 0;
+    for (int i = 0; i < linkCount; i++) {
+      WritableUtils.writeVInt(out, links[i] - last);
+      last = links[i];
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int n = WritableUtils.readVInt(in);
+    rank = in.readDouble();
+    linkCount = n < 0 ? -1 : 0;
+    if (n < 0)
+      return;
+    id = WritableUtils.readVInt(in);
+    int last = 0;
+    for (int i = 0; i < n; i++) {
+      last += WritableUtils.readVInt(in);
+      addLink(last);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    out.append(rank);
+    for (int i = 0; i < linkCount; i++)
+      out.append(i == 0 ? '\t' : ',').append(links[i]);
+    return out.toString();
+  }
+}
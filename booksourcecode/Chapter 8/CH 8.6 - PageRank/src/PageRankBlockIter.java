@@ -0,0 +1,256 @@
+package CH8;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * 按块迭代的PageRank：图按编号划分为 {@value #BLOCK_COUNT} 个块，每块一个reduce task，
+ * 每个reduce task把自己的块整个读入内存，块间的边仍按上一轮的rank传递贡献（Jacobi），块内的边在reducer中
+ * 就地迭代 {@value #SWEEPS} 遍（Gauss-Seidel），因此达到同样的残差需要的MapReduce轮数更少。
+ * <p>
+ * 没有出链的网页的rank均分给所有网页，相当于每个网页都依赖全图，Gauss-Seidel在这一项上
+ * 收敛很慢。由于这部分质量和随机跳转一样是均匀分配的，不重新分配它时解出的rank只差一个
+ * 常数倍，因此这里求解不含dangling项的方程 r = (1-d) + d * Σ r(u)/出链数(u)，
+ * 输出未归一化的rank，并把rank总和累加到RANK_SUM计数器，最后由PageRankViewer按
+ * 网页数 / rank总和 缩放。输入输出格式与PageRankIter相同
+ */
+public class PageRankBlockIter {
+  /** 每个reduce task在块内迭代的遍数 **/
+  public static final String SWEEPS = "pagerank.block.sweeps";
+  /** 划分方式：hash（编号取模，默认）或 range（连续编号分在同一块） **/
+  public static final String PARTITION = "pagerank.block.partition";
+  /** 块数，即reduce task数；每块需要能放入一个reducer的内存，为1时整个图是一个块 **/
+  public static final String BLOCK_COUNT = "pagerank.block.count";
+
+  /** 按块划分编号，块数等于reduce task数 **/
+  public static class BlockPartitioner extends Partitioner<IntWritable, PageNode>
+      implements Configurable {
+    private Configuration conf;
+    private boolean range;
+    private long pages;
+
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+      range = "range".equals(conf.get(PARTITION, "hash"));
+      pages = conf.getLong(PageRankIter.PAGES, 0);
+      if (range && pages <= 0)
+        throw new IllegalArgumentException(PARTITION + "=range needs "
+            + PageRankIter.PAGES);
+    }
+
+    public Configuration getConf() {
+      return conf;
+    }
+
+    public static int block(int id, int blocks, boolean range, long pages) {
+      if (range)
+        return (int) Math.min(blocks - 1, (long) id * blocks / pages);
+      return id % blocks;
+    }
+
+    @Override
+    public int getPartition(IntWritable key, PageNode value, int numPartitions) {
+      return block(key.get(), numPartitions, range, pages);
+    }
+  }
+
+  /** 节点发给自己所在的块；只有指向其他块的出链才输出贡献 **/
+  public static class BlockMapper extends
+      Mapper<IntWritable, PageNode, IntWritable, PageNode> {
+    private PageNode contribution = new PageNode();
+    private IntWritable link = new IntWritable();
+    private int blocks;
+    private boolean range;
+    private long pages;
+
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      blocks = context.getNumReduceTasks();
+      range = "range".equals(conf.get(PARTITION, "hash"));
+      pages = conf.getLong(PageRankIter.PAGES, 0);
+    }
+
+    public void map(IntWritable key, PageNode value, Context context)
+        throws IOException, InterruptedException {
+      int n = value.getLinkCount();
+      int block = BlockPartitioner.block(key.get(), blocks, range, pages);
+      if (n > 0) {
+        contribution.setContribution(value.getRank() / n);
+        for (int i = 0; i < n; i++) {
+          int target = value.getLink(i);
+          if (BlockPartitioner.block(target, blocks, range, pages) == block)
+            continue;
+          link.set(target);
+          context.write(link, contribution);
+        }
+      }
+      context.write(key, value);
+    }
+  }
+
+  /**
+   * reduce()只收集本块的节点和来自其他块的贡献，cleanup中建立块内的入边表，
+   * 按编号顺序就地更新rank若干遍，最后输出所有节点
+   */
+  public static class BlockReducer extends
+      Reducer<IntWritable, PageNode, IntWritable, PageNode> {
+    private int size = 0;
+    private int[] ids = new int[1024];
+    private double[] oldRanks = new double[1024];
+    private double[] external = new double[1024];
+    private int[] linkStart = new int[1025];
+    private int[] links = new int[4096];
+    private int sweeps;
+    private int blocks;
+    private int block;
+    private boolean range;
+    private long pages;
+    private double damping;
+
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      damping = PageRankIter.damping(conf);
+      sweeps = conf.getInt(SWEEPS, 3);
+      blocks = context.getNumReduceTasks();
+      block = context.getTaskAttemptID().getTaskID().getId();
+      range = "range".equals(conf.get(PARTITION, "hash"));
+      pages = conf.getLong(PageRankIter.PAGES, 0);
+    }
+
+    public void reduce(IntWritable key, Iterable<PageNode> values, Context context)
+        throws IOException, InterruptedException {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        oldRanks = Arrays.copyOf(oldRanks, size * 2);
+        external = Arrays.copyOf(external, size * 2);
+        linkStart = Arrays.copyOf(linkStart, size * 2 + 1);
+      }
+      ids[size] = key.get();
+      oldRanks[size] = 0;
+      external[size] = 0;
+      int start = linkStart[size];
+      int end = start;
+      for (PageNode value : values) {
+        if (!value.isNode()) {
+          external[size] += value.getRank();
+          continue;
+        }
+        oldRanks[size] = value.getRank();
+        int n = value.getLinkCount();
+        if (links.length < start + n)
+          links = Arrays.copyOf(links, Math.max(links.length * 2, start + n));
+        for (int i = 0; i < n; i++)
+          links[start + i] = value.getLink(i);
+        end = start + n;
+      }
+      linkStart[++size] = end;
+    }
+
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      // 块内入边表：in[inStart[v]..inStart[v+1]) 是块内链向v的节点的下标
+      int[] inStart = new int[size + 1];
+      int[] local = new int[linkStart[size]];
+      for (int u = 0; u < size; u++) {
+        for (int k = linkStart[u]; k < linkStart[u + 1]; k++) {
+          int target = links[k];
+          local[k] = -1;
+          if (BlockPartitioner.block(target, blocks, range, pages) != block)
+            continue;
+          int v = Arrays.binarySearch(ids, 0, size, target);
+          if (v < 0)
+            continue;
+          local[k] = v;
+          inStart[v + 1]++;
+        }
+      }
+      for (int v = 0; v < size; v++)
+        inStart[v + 1] += inStart[v];
+      int[] in = new int[inStart[size]];
+      int[] fill = Arrays.copyOf(inStart, size);
+      for (int u = 0; u < size; u++) {
+        for (int k = linkStart[u]; k < linkStart[u + 1]; k++) {
+          if (local[k] >= 0)
+            in[fill[local[k]]++] = u;
+        }
+      }
+
+      double[] ranks = Arrays.copyOf(oldRanks, size);
+      for (int s = 0; s < sweeps; s++) {
+        for (int v = 0; v < size; v++) {
+          double sum = external[v];
+          for (int k = inStart[v]; k < inStart[v + 1]; k++) {
+            int u = in[k];
+            sum += ranks[u] / (linkStart[u + 1] - linkStart[u]);
+          }
+          ranks[v] = (1 - damping) + damping * sum;
+        }
+      }
+
+      IntWritable key = new IntWritable();
+      PageNode node = new PageNode();
+      long residual = 0, rankSum = 0;
+      for (int v = 0; v < size; v++) {
+        key.set(ids[v]);
+        node.setNode(ids[v], ranks[v]);
+        for (int k = linkStart[v]; k < linkStart[v + 1]; k++)
+          node.addLink(links[k]);
+        context.write(key, node);
+        residual += Math.round(Math.abs(ranks[v] - oldRanks[v]) * PageRankIter.COUNTER_SCALE);
+        rankSum += Math.round(ranks[v] * PageRankIter.COUNTER_SCALE);
+      }
+      context.getCounter(PageRankIter.PageRankCounter.RESIDUAL).increment(residual);
+      context.getCounter(PageRankIter.PageRankCounter.RANK_SUM).increment(rankSum);
+      context.getCounter(PageRankIter.PageRankCounter.PAGES).increment(size);
+    }
+  }
+
+  /** 运行一轮按块迭代，返回已完成的job，可从中读取计数器 **/
+  public static Job run(Configuration conf, Path input, Path output)
+      throws Exception {
+    int blocks = conf.getInt(BLOCK_COUNT, 0);
+    if (blocks < 1)
+      throw new IllegalArgumentException(BLOCK_COUNT + " must be set to a positive number");
+    Job job = new Job(conf, "PageRankBlockIter");
+    job.setJarByClass(PageRankBlockIter.class);
+    job.setNumReduceTasks(blocks);
+    job.setOutputKeyClass(IntWritable.class);
+    job.setOutputValueClass(PageNode.class);
+    job.setMapperClass(BlockMapper.class);
+    job.setPartitionerClass(BlockPartitioner.class);
+    job.setReducerClass(BlockReducer.class);
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.addInputPath(job, input);
+    FileOutputFormat.setOutputPath(job, output);
+    job.waitForCompletion(true);
+    return job;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length != 2) {
+      System.err.println("Usage: PageRankBlockIter -D " + BLOCK_COUNT + "=<blocks> [-D "
+          + SWEEPS + "=3] [-D " + PARTITION + "=hash|range -D " + PageRankIter.PAGES
+          + "=<pages>] <input> <output>");
+      System.exit(2);
+    }
+    Job job = run(conf, new Path(args[0]), new Path(args[1]));
+    System.exit(job.isSuccessful() ? 0 : 1);
+  }
+}
@@ -4,23 +4,113 @@ import CH8.GraphBuilder;
 import CH8.PageRankIter;
 import CH8.PageRankViewer;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * 建图后反复迭代，直到平均每个网页的rank变化量（L1残差 / 网页数）小于
+ * {@value #EPSILON}，或达到 {@value #MAX_ITERATIONS} 次；每次迭代后删除上上次的结果。
+ * 上一个job计数器中没有出链的网页的rank之和通过Configuration传给下一次迭代重新分配。
+ * 设置 {@value PersonalizedPageRank#SEEDS} 时改为用PersonalizedPageRank同时计算多个主题，
+ * 此时残差按主题数平均
+ */
 public class PageRankDriver {
-  private static int times = 10; // 设置迭代次数
+  /** 收敛阈值：L1残差除以网页数 **/
+  public static final String EPSILON = "pagerank.epsilon";
+  /** 最多迭代次数 **/
+  public static final String MAX_ITERATIONS = "pagerank.max.iterations";
+  /** 为true时用PageRankBlockIter按块迭代，块数由 {@value PageRankBlockIter#BLOCK_COUNT} 指定 **/
+  public static final String BLOCK = "pagerank.block";
 
   public static void main(String[] args) throws Exception {
-    String[] forGB = { "", args[1] + "/Data0" };
-    forGB[0] = args[0];
-    GraphBuilder.main(forGB);
-
-    String[] forItr = { "", "" };
-    for (int i = 0; i < times; i++) {
-      forItr[0] = args[1] + "/Data" + i;
-      forItr[1] = args[1] + "/Data" + String.valueOf(i + 1);
-      PageRankIter.main(forItr);
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length < 2) {
+      System.err.println("Usage: PageRankDriver [-D " + EPSILON + "=1e-3] [-D "
+          + MAX_ITERATIONS + "=30] [-D " + BLOCK + "=true -D " + PageRankBlockIter.BLOCK_COUNT + "=<blocks>] [-D "
+          + PageRankViewer.TOP_K + "=k] [-D " + GraphBuilder.XML_INPUT
+          + "=true] [-D " + PageRankIter.DAMPING + "=0.85] [-D "
+          + PersonalizedPageRank.SEEDS + "=<seed file>] <input> <output>");
+      System.exit(2);
+    }
+    double epsilon = Double.parseDouble(conf.get(EPSILON, "1e-3"));
+    int times = conf.getInt(MAX_ITERATIONS, 30); // 最多迭代次数
+    boolean block = conf.getBoolean(BLOCK, false);
+    boolean personalized = conf.get(PersonalizedPageRank.SEEDS) != null;
+    if (block && personalized) {
+      System.err.println(BLOCK + " cannot be used with " + PersonalizedPageRank.SEEDS);
+      System.exit(2);
+    }
+    if (block && conf.getInt(PageRankBlockIter.BLOCK_COUNT, 0) < 1) {
+      System.err.println(BLOCK + " needs " + PageRankBlockIter.BLOCK_COUNT + "=<blocks>");
+      System.exit(2);
+    }
+    FileSystem fs = new Path(args[1]).getFileSystem(conf);
+
+    long start = System.currentTimeMillis();
+    String[] forGB = { args[0], args[1] + "/Data0", args[1] + "/Dictionary" };
+    Job graph = GraphBuilder.run(conf, forGB);
+    if (!graph.isSuccessful())
+      System.exit(1);
+    Counters counters = graph.getCounters();
+    conf.setLong(PageRankIter.PAGES,
+        counters.findCounter(PageRankIter.PageRankCounter.PAGES).getValue());
+    long dangling = counters.findCounter(PageRankIter.PageRankCounter.DANGLING).getValue();
+    if (personalized && !PersonalizedPageRank.prepare(conf, new Path(forGB[1]),
+        new Path(forGB[2]), new Path(args[1] + "/Seeds")))
+      System.exit(1);
+    System.out.println("graph built in " + (System.currentTimeMillis() - start) + " ms");
+
+    int i = 0;
+    while (i < times) {
+      long iterStart = System.currentTimeMillis();
+      Path input = new Path(args[1] + "/Data" + i);
+      Path output = new Path(args[1] + "/Data" + (i + 1));
+      conf.set(PageRankIter.DANGLING_MASS, String.valueOf(dangling / PageRankIter.COUNTER_SCALE));
+      Job job;
+      if (personalized)
+        job = PersonalizedPageRank.run(conf, input, output);
+      else if (block)
+        job = PageRankBlockIter.run(conf, input, output);
+      else
+        job = PageRankIter.run(conf, input, output);
+      if (!job.isSuccessful())
+        System.exit(1);
+      i++;
+      if (i >= 2)
+        fs.delete(new Path(args[1] + "/Data" + (i - 2)), true);
+
+      counters = job.getCounters();
+      dangling = counters.findCounter(PageRankIter.PageRankCounter.DANGLING).getValue();
+      long pages = counters.findCounter(PageRankIter.PageRankCounter.PAGES).getValue();
+      double residual = counters.findCounter(PageRankIter.PageRankCounter.RESIDUAL).getValue()
+          / PageRankIter.COUNTER_SCALE;
+      long units = personalized ? conf.getStrings(PersonalizedPageRank.TOPICS).length : pages;
+      double average = units == 0 ? 0 : residual / units;
+      System.out.println("iteration " + i + ": residual " + residual + " over " + units
+          + (personalized ? " topics (" : " pages (") + average + " each), " + (System.currentTimeMillis() - iterStart) + " ms");
+      if (average < epsilon)
+        break;
     }
 
-    String[] forRV = { args[1] + "/Data" + times, args[1] + "/FinalRank" };
-    PageRankViewer.main(forRV);
+    if (block) {
+      // 按块迭代的rank未归一化，让PageRankViewer缩放到总和等于网页数
+      double rankSum = counters.findCounter(PageRankIter.PageRankCounter.RANK_SUM).getValue()
+          / PageRankIter.COUNTER_SCALE;
+      long pages = counters.findCounter(PageRankIter.PageRankCounter.PAGES).getValue();
+      if (rankSum > 0)
+        conf.set(PageRankViewer.SCALE, String.valueOf(pages / rankSum));
+    }
+
+    String[] forRV = { args[1] + "/Data" + i, args[1] + "/Dictionary",
+        args[1] + "/FinalRank" };
+    if (!(personalized ? PersonalizedPageRank.view(conf, forRV)
+        : PageRankViewer.run(conf, forRV)))
+      System.exit(1);
+    System.out.println(i + " iterations, total " + (System.currentTimeMillis() - start) + " ms");
   }
 }
-
@@ -4,71 +4,125 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class PageRankIter {
-  private static final double damping = 0.85;
+  /** 阻尼系数，默认0.85 **/
+  public static final String DAMPING = "pagerank.damping";
+  /** 计数器只能累加long，rank的变化量乘以该值后取整累加 **/
+  public static final double COUNTER_SCALE = 1e9;
+  /** 输入中没有出链的网页的rank之和，在本次迭代中平均分给所有网页 **/
+  public static final String DANGLING_MASS = "pagerank.dangling.mass";
+  /** 网页总数 **/
+  public static final String PAGES = "pagerank.pages";
 
+  static double damping(Configuration conf) {
+    return Double.parseDouble(conf.get(DAMPING, "0.85"));
+  }
+
+  public static enum PageRankCounter {
+    /** 所有网页 |新rank - 旧rank| 之和（L1残差），乘以COUNTER_SCALE **/
+    RESIDUAL,
+    /** 输出中没有出链的网页的rank之和，乘以COUNTER_SCALE，作为下一次迭代的DANGLING_MASS **/
+    DANGLING,
+    /** 按块迭代时输出的未归一化rank之和，乘以COUNTER_SCALE **/
+    RANK_SUM,
+    PAGES
+  }
+
+  /** 对每个出链输出一份rank贡献，并把节点自身（含出链和旧rank）发给自己 **/
   public static class PRIterMapper extends
-      Mapper<LongWritable, Text, Text, Text> {
-    public void map(LongWritable key, Text value, Context context)
-        throws IOException, InterruptedException {
-      String line = value.toString();
-      String[] tuple = line.split("\t");
-      String pageKey = tuple[0];
-      double pr = Double.parseDouble(tuple[1]);
+      Mapper<IntWritable, PageNode, IntWritable, PageNode> {
+    private PageNode contribution = new PageNode();
+    private IntWritable link = new IntWritable();
 
-      if (tuple.length > 2) {
-        String[] linkPages = tuple[2].split(",");
-        for (String linkPage : linkPages) {
-          String prValue =
-              pageKey + "\t" + String.valueOf(pr / linkPages.length);
-          context.write(new Text(linkPage), new Text(prValue));
+    public void map(IntWritable key, PageNode value, Context context)
+        throws IOException, InterruptedException {
+      int n = value.getLinkCount();
+      if (n > 0) {
+        contribution.setContribution(value.getRank() / n);
+        for (int i = 0; i < n; i++) {
+          link.set(value.getLink(i));
+          context.write(link, contribution);
         }
-        context.write(new Text(pageKey), new Text("|" + tuple[2]));
       }
+      context.write(key, value);
     }
   }
 
-  public static class PRIterReducer extends Reducer<Text, Text, Text, Text> {
-    public void reduce(Text key, Iterable<Text> values, Context context)
-        throws IOException, InterruptedException {
-      String links = "";
-      double pagerank = 0;
-      for (Text value : values) {
-        String tmp = value.toString();
+  /**
+   * 没有出链的网页不向外输出贡献，它们的rank之和由driver通过 {@value #DANGLING_MASS}
+   * 传入，平均加到每个网页上，使rank总量在迭代中保持不变
+   */
+  public static class PRIterReducer extends
+      Reducer<IntWritable, PageNode, IntWritable, PageNode> {
+    private PageNode node = new PageNode();
+    private double danglingShare = 0;
+    private double damping;
 
-        if (tmp.startsWith("|")) {
-          links = "\t" + tmp.substring(tmp.indexOf("|") + 1);// index从0开始
-          continue;
-        }
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      damping = damping(conf);
+      long pages = conf.getLong(PAGES, 0);
+      if (pages > 0)
+        danglingShare = Double.parseDouble(conf.get(DANGLING_MASS, "0")) / pages;
+    }
 
-        String[] tuple = tmp.split("\t");
-        if (tuple.length > 1)
-          pagerank += Double.parseDouble(tuple[1]);
+    public void reduce(IntWritable key, Iterable<PageNode> values, Context context)
+        throws IOException, InterruptedException {
+      double pagerank = 0;
+      double old = 0;
+      node.setNode(key.get(), 0);
+      for (PageNode value : values) {
+        if (value.isNode()) {
+          node.setLinks(value);
+          old = value.getRank();
+        } else
+          pagerank += value.getRank();
       }
+      pagerank += danglingShare;
       pagerank = (double) (1 - damping) + damping * pagerank; // PageRank的计算迭代公式
-      context.write(new Text(key), new Text(String.valueOf(pagerank) + links));
+      node.setRank(pagerank);
+      context.write(key, node);
+      if (node.getLinkCount() == 0)
+        context.getCounter(PageRankCounter.DANGLING).increment(
+            Math.round(pagerank * COUNTER_SCALE));
+      context.getCounter(PageRankCounter.RESIDUAL).increment(
+          Math.round(Math.abs(pagerank - old) * COUNTER_SCALE));
+      context.getCounter(PageRankCounter.PAGES).increment(1);
     }
 
   }
 
-  public static void main(String[] args) throws Exception {
-    Configuration conf = new Configuration();
+  /** 运行一次迭代，返回已完成的job，可从中读取计数器 **/
+  public static Job run(Configuration conf, Path input, Path output)
+      throws Exception {
     Job job2 = new Job(conf, "PageRankIter");
     job2.setJarByClass(PageRankIter.class);
-    job2.setOutputKeyClass(Text.class);
-    job2.setOutputValueClass(Text.class);
+    job2.setOutputKeyClass(IntWritable.class);
+    job2.setOutputValueClass(PageNode.class);
     job2.setMapperClass(PRIterMapper.class);
     job2.setReducerClass(PRIterReducer.class);
-    FileInputFormat.addInputPath(job2, new Path(args[0]));
-    FileOutputFormat.setOutputPath(job2, new Path(args[1]));
+    job2.setInputFormatClass(SequenceFileInputFormat.class);
+    job2.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.addInputPath(job2, input);
+    FileOutputFormat.setOutputPath(job2, output);
     job2.waitForCompletion(true);
+    return job2;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    Job job = run(conf, new Path(args[0]), new Path(args[1]));
+    System.exit(job.isSuccessful() ? 0 : 1);
   }
 }
@@ -1,41 +1,268 @@
 package CH8;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.util.GenericOptionsParser;
 
+/**
+ * ȰŰѵGraphBuilderֵѱŻtitle
+ * ٰrankӴС <rank, title>reducerʱTotalOrderPartitioner
+ * ʹļ
+ * <p>
+ *  {@value #TOP_K} ʱֻrankkҳÿmapperôСΪkС
+ * صǰkһreducerϲɨֵֻΪkһtitleҪȫ
+ */
 public class PageRankViewer {
-  public static class PageRankViewerMapper extends
-      Mapper<LongWritable, Text, FloatWritable, Text> {
-    private Text outPage = new Text();
+  /** ǰrankԵϵĬΪ1 */
+  public static final String SCALE = "pagerank.rank.scale";
+  /** 0ʱֻrankkҳ */
+  public static final String TOP_K = "pagerank.viewer.topk";
+  /** ǰkҳ <id, rank> ڵļֵɨmapper */
+  public static final String TOP_K_FILE = "pagerank.viewer.topk.file";
+
+  /** rankk (rank, id) СѣѶǵǰk */
+  public static class TopK {
+    private int size = 0;
+    private double[] ranks;
+    private int[] ids;
+
+    public TopK(int k) {
+      ranks = new double[k];
+      ids = new int[k];
+    }
+
+    private boolean less(int i, int j) {
+      return ranks[i] < ranks[j] || (ranks[i] == ranks[j] && ids[i] > ids[j]);
+    }
+
+    private void swap(int i, int j) {
+      double r = ranks[i];
+      ranks[i] = ranks[j];
+      ranks[j] = r;
+      int id = ids[i];
+      ids[i] = ids[j];
+      ids[j] = id;
+    }
+
+    public void offer(double rank, int id) {
+      if (size < ranks.length) {
+        ranks[size] = rank;
+        ids[size] = id;
+        for (int i = size++; i > 0 && less(i, (i - 1) / 2); i = (i - 1) / 2)
+          swap(i, (i - 1) / 2);
+        return;
+      }
+      if (rank < ranks[0] || (rank == ranks[0] && id > ids[0]))
+        return;
+      ranks[0] = rank;
+      ids[0] = id;
+      for (int i = 0;;) {
+        int c = 2 * i + 1;
+        if (c >= size)
+          break;
+        if (c + 1 < size && less(c + 1, c))
+          c++;
+        if (!less(c, i))
+          break;
+        swap(i, c);
+        i = c;
+      }
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public double rank(int i) {
+      return ranks[i];
+    }
+
+    public int id(int i) {
+      return ids[i];
+    }
+  }
+
+  /** ÿmapperֻcleanupʱصǰk <rank, id> */
+  public static class TopKMapper extends
+      Mapper<IntWritable, PageNode, DoubleWritable, IntWritable> {
+    private TopK top;
+    private double scale;
+
+    public void setup(Context context) {
+      top = new TopK(context.getConfiguration().getInt(TOP_K, 0));
+      scale = Double.parseDouble(context.getConfiguration().get(SCALE, "1"));
+    }
+
+    public void map(IntWritable key, PageNode value, Context context) {
+      top.offer(value.getRank() * scale, key.get());
+    }
+
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      DoubleWritable rank = new DoubleWritable();
+      IntWritable id = new IntWritable();
+      for (int i = 0; i < top.size(); i++) {
+        rank.set(top.rank(i));
+        id.set(top.id(i));
+        context.write(rank, id);
+      }
+    }
+  }
+
+  /** Ψһreducerϲmapperǰkȫǰk <id, rank> */
+  public static class TopKReducer extends
+      Reducer<DoubleWritable, IntWritable, IntWritable, DoubleWritable> {
+    private TopK top;
+
+    public void setup(Context context) {
+      top = new TopK(context.getConfiguration().getInt(TOP_K, 0));
+    }
+
+    public void reduce(DoubleWritable key, Iterable<IntWritable> values,
+        Context context) {
+      for (IntWritable id : values)
+        top.offer(key.get(), id.get());
+    }
+
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      IntWritable id = new IntWritable();
+      DoubleWritable rank = new DoubleWritable();
+      for (int i = 0; i < top.size(); i++) {
+        id.set(top.id(i));
+        rank.set(top.rank(i));
+        context.write(id, rank);
+      }
+    }
+  }
+
+  /** ɨֵ䣬ֻǰkŵ <rank, title> */
+  public static class TopKTitleMapper extends
+      Mapper<IntWritable, Text, FloatWritable, Text> {
+    private Map<Integer, Double> top = new HashMap<Integer, Double>();
     private FloatWritable outPr = new FloatWritable();
 
-    public void map(LongWritable key, Text value, Context context)
+    public void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      Path path = new Path(conf.get(TOP_K_FILE));
+      FileSystem fs = path.getFileSystem(conf);
+      IntWritable id = new IntWritable();
+      DoubleWritable rank = new DoubleWritable();
+      for (FileStatus file : fs.globStatus(new Path(path, "part-*"))) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+        try {
+          while (reader.next(id, rank))
+            top.put(id.get(), rank.get());
+        } finally {
+          reader.close();
+        }
+      }
+    }
+
+    public void map(IntWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      Double rank = top.get(key.get());
+      if (rank == null)
+        return;
+      outPr.set(rank.floatValue());
+      context.write(outPr, value);
+    }
+  }
+
+  /** ʱvalueԵrankֵtitle */
+  public static class RankOrTitle extends GenericWritable {
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Writable>[] TYPES = new Class[] {
+        DoubleWritable.class, Text.class };
+
+    protected Class<? extends Writable>[] getTypes() {
+      return TYPES;
+    }
+  }
+
+  public static class RankMapper extends
+      Mapper<IntWritable, PageNode, IntWritable, RankOrTitle> {
+    private DoubleWritable rank = new DoubleWritable();
+    private RankOrTitle out = new RankOrTitle();
+    private double scale;
+
+    public void setup(Context context) {
+      scale = Double.parseDouble(context.getConfiguration().get(SCALE, "1"));
+    }
+
+    public void map(IntWritable key, PageNode value, Context context)
+        throws IOException, InterruptedException {
+      rank.set(value.getRank() * scale);
+      out.set(rank);
+      context.write(key, out);
+    }
+  }
+
+  public static class TitleMapper extends
+      Mapper<IntWritable, Text, IntWritable, RankOrTitle> {
+    private RankOrTitle out = new RankOrTitle();
+
+    public void map(IntWritable key, Text value, Context context)
         throws IOException, InterruptedException {
-      String[] line = value.toString().split("\t");
-      String page = line[0];
-      float pr = Float.parseFloat(line[1]);
-      outPage.set(page);
-      outPr.set(pr);
-      context.write(outPr, outPage);
+      out.set(value);
+      context.write(key, out);
+    }
+  }
+
+  /**  <rank, title>ֵûеıֱ */
+  public static class JoinReducer extends
+      Reducer<IntWritable, RankOrTitle, FloatWritable, Text> {
+    private FloatWritable outPr = new FloatWritable();
+    private Text outPage = new Text();
+
+    public void reduce(IntWritable key, Iterable<RankOrTitle> values,
+        Context context) throws IOException, InterruptedException {
+      boolean ranked = false;
+      outPage.set(String.valueOf(key.get()));
+      for (RankOrTitle value : values) {
+        Writable w = value.get();
+        if (w instanceof DoubleWritable) {
+          outPr.set((float) ((DoubleWritable) w).get());
+          ranked = true;
+        } else {
+          outPage.set((Text) w);
+        }
+      }
+      if (ranked)
+        context.write(outPr, outPage);
     }
   }
 
   /**keyıȽϺʹ侭shufflesort򣨴ӴС**/
   public static class DescFloatComparator extends FloatWritable.Comparator {
-    // @Override
-    public float compare(WritableComparator a,
-        WritableComparable<FloatWritable> b) {
+    // InputSamplerTotalOrderPartitionerҷʱö汾compareҲҪ
+    @SuppressWarnings("rawtypes")
+    @Override
+    public int compare(WritableComparable a, WritableComparable b) {
       return -super.compare(a, b);
     }
 
@@ -44,17 +271,91 @@ public class PageRankViewer {
     }
   }
 
-  public static void main(String[] args) throws Exception {
-      Configuration conf = new Configuration();
+  /** ֻrankkҳ */
+  private static boolean runTopK(Configuration conf, String[] args) throws Exception {
+      Path topk = new Path(args[2] + "_topk");
+      Job select = new Job(conf, "PageRankViewer TopK");
+      select.setJarByClass(PageRankViewer.class);
+      select.setMapOutputKeyClass(DoubleWritable.class);
+      select.setMapOutputValueClass(IntWritable.class);
+      select.setOutputKeyClass(IntWritable.class);
+      select.setOutputValueClass(DoubleWritable.class);
+      select.setMapperClass(TopKMapper.class);
+      select.setReducerClass(TopKReducer.class);
+      select.setNumReduceTasks(1);
+      select.setInputFormatClass(SequenceFileInputFormat.class);
+      select.setOutputFormatClass(SequenceFileOutputFormat.class);
+      FileInputFormat.addInputPath(select, new Path(args[0]));
+      FileOutputFormat.setOutputPath(select, topk);
+      if (!select.waitForCompletion(true))
+        return false;
+
+      Configuration titleConf = new Configuration(conf);
+      titleConf.set(TOP_K_FILE, topk.toString());
+      Job titles = new Job(titleConf, "PageRankViewer TopK Titles");
+      titles.setJarByClass(PageRankViewer.class);
+      titles.setOutputKeyClass(FloatWritable.class);
+      titles.setOutputValueClass(Text.class);
+      titles.setSortComparatorClass(DescFloatComparator.class);
+      titles.setMapperClass(TopKTitleMapper.class);
+      titles.setNumReduceTasks(1);
+      titles.setInputFormatClass(SequenceFileInputFormat.class);
+      FileInputFormat.addInputPath(titles, new Path(args[1]));
+      FileOutputFormat.setOutputPath(titles, new Path(args[2]));
+      boolean success = titles.waitForCompletion(true);
+      topk.getFileSystem(conf).delete(topk, true);
+      return success;
+  }
+
+  /** PageRankViewer [-D pagerank.viewer.topk=k] <rank input> <dictionary> <output> */
+  public static boolean run(Configuration conf, String[] args) throws Exception {
+      if (conf.getInt(TOP_K, 0) > 0)
+        return runTopK(conf, args);
+
+      Path joined = new Path(args[2] + "_joined");
+      Job join = new Job(conf, "PageRankViewer Join");
+      join.setJarByClass(PageRankViewer.class);
+      join.setMapOutputKeyClass(IntWritable.class);
+      join.setMapOutputValueClass(RankOrTitle.class);
+      join.setOutputKeyClass(FloatWritable.class);
+      join.setOutputValueClass(Text.class);
+      join.setReducerClass(JoinReducer.class);
+      join.setOutputFormatClass(SequenceFileOutputFormat.class);
+      MultipleInputs.addInputPath(join, new Path(args[0]),
+          SequenceFileInputFormat.class, RankMapper.class);
+      MultipleInputs.addInputPath(join, new Path(args[1]),
+          SequenceFileInputFormat.class, TitleMapper.class);
+      FileOutputFormat.setOutputPath(join, joined);
+      if (!join.waitForCompletion(true))
+        return false;
+
       Job job3 = new Job(conf, "PageRankViewer");
       job3.setJarByClass(PageRankViewer.class);
       job3.setOutputKeyClass(FloatWritable.class);
       job3.setSortComparatorClass(DescFloatComparator.class);
       job3.setOutputValueClass(Text.class);
-      job3.setMapperClass(PageRankViewerMapper.class);
-      FileInputFormat.addInputPath(job3, new Path(args[0]));
-      FileOutputFormat.setOutputPath(job3, new Path(args[1]));
-      job3.waitForCompletion(true);
+      job3.setMapperClass(Mapper.class);
+      job3.setInputFormatClass(SequenceFileInputFormat.class);
+      FileInputFormat.addInputPath(job3, joined);
+      FileOutputFormat.setOutputPath(job3, new Path(args[2]));
+      Path partitions = new Path(args[2] + "_partitions");
+      if (job3.getNumReduceTasks() > 1) {
+        // rank䣬ireducerrankڵi+1ģļƴӼΪȫ
+        job3.setPartitionerClass(TotalOrderPartitioner.class);
+        TotalOrderPartitioner.setPartitionFile(job3.getConfiguration(), partitions);
+        InputSampler.writePartitionFile(job3,
+            new InputSampler.RandomSampler<FloatWritable, Text>(0.01, 10000, 10));
+      }
+      boolean success = job3.waitForCompletion(true);
+      joined.getFileSystem(conf).delete(joined, true);
+      joined.getFileSystem(conf).delete(partitions, false);
+      return success;
+  }
+
+  public static void main(String[] args) throws Exception {
+      Configuration conf = new Configuration();
+      args = new GenericOptionsParser(conf, args).getRemainingArgs();
+      System.exit(run(conf, args) ? 0 : 1);
   }
 }
 
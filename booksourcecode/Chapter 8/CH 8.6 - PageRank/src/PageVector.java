@@ -0,0 +1,145 @@
+package CH8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 个性化PageRank中的一个网页：字典编号、每个种子集合一个分量的rank向量和出链，
+ * 与PageNode相同，出链数为-1时只表示一份rank贡献向量。
+ * <p>
+ * 序列化格式：vint出链数（-1表示贡献消息），vint向量长度，各分量的double；
+ * 完整节点之后是vint编号和出链编号的vint差值
+ */
+public class PageVector implements Writable {
+  private int id;
+  private int linkCount = -1;
+  private int[] links = new int[8];
+  private int topics = 0;
+  private double[] ranks = new double[0];
+
+  /** 设置向量长度并把各分量清零 **/
+  public void reset(int topics) {
+    if (ranks.length < topics)
+      ranks = new double[topics];
+    else
+      Arrays.fill(ranks, 0, topics, 0);
+    this.topics = topics;
+  }
+
+  /** 设为只携带rank贡献的消息，向量清零 **/
+  public void setContribution(int topics) {
+    reset(topics);
+    linkCount = -1;
+  }
+
+  /** 设为不含出链的完整节点，向量清零 **/
+  public void setNode(int id, int topics) {
+    reset(topics);
+    this.id = id;
+    linkCount = 0;
+  }
+
+  public boolean isNode() {
+    return linkCount >= 0;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public int getTopics() {
+    return topics;
+  }
+
+  public double getRank(int t) {
+    return ranks[t];
+  }
+
+  public void setRank(int t, double rank) {
+    ranks[t] = rank;
+  }
+
+  public void addRank(int t, double rank) {
+    ranks[t] += rank;
+  }
+
+  public int getLinkCount() {
+    return linkCount < 0 ? 0 : linkCount;
+  }
+
+  public int getLink(int i) {
+    return links[i];
+  }
+
+  /** 复制PageNode的出链 **/
+  public void setLinks(PageNode node) {
+    int n = node.getLinkCount();
+    if (links.length < n)
+      links = new int[n];
+    for (int i = 0; i < n; i++)
+      links[i] = node.getLink(i);
+    linkCount = n;
+  }
+
+  /** 复制另一个节点的出链，编号和向量不变 **/
+  public void setLinks(PageVector other) {
+    int n = other.getLinkCount();
+    if (links.length < n)
+      links = new int[n];
+    System.arraycopy(other.links, 0, links, 0, n);
+    linkCount = n;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, linkCount);
+    WritableUtils.writeVInt(out, topics);
+    for (int t = 0; t < topics; t++)
+      out.writeDouble(ranks[t]);
+    if (linkCount < 0)
+      return;
+    WritableUtils.writeVInt(out, id);
+    int last = 0;
+    for (int i = 0; i < linkCount; i++) {
+      WritableUtils.writeVInt(out, links[i] - last);
+      last = links[i];
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int n = WritableUtils.readVInt(in);
+    int k = WritableUtils.readVInt(in);
+    if (ranks.length < k)
+      ranks = new double[k];
+    topics = k;
+    for (int t = 0; t < k; t++)
+      ranks[t] = in.readDouble();
+    linkCount = n;
+    if (n < 0)
+      return;
+    id = WritableUtils.readVInt(in);
+    if (links.length < n)
+      links = new int[n];
+    int last = 0;
+    for (int i = 0; i < n; i++) {
+      last += WritableUtils.readVInt(in);
+      links[i] = last;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    for (int t = 0; t < topics; t++)
+      out.append(t == 0 ? "" : ",").append(ranks[t]);
+    for (int i = 0; i < getLinkCount(); i++)
+      out.append(i == 0 ? '\t' : ',').append(links[i]);
+    return out.toString();
+  }
+}
@@ -0,0 +1,530 @@
+package CH8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/**
+ * 一次迭代同时计算多个种子集合（主题）的个性化PageRank：每个网页带一个rank向量，
+ * 第t个分量只向第t个种子集合中的网页随机跳转，贡献也按向量shuffle，
+ * 多个主题共用一次图的扫描和shuffle，并用combiner在map端合并同一网页的贡献向量。
+ * <p>
+ * 种子文件 {@value #SEEDS} 每行一个种子集合：主题名\ttitle1,title2,...（主题名中不能有逗号）。
+ * 没有出链的网页的rank按惯例跳转到种子集合，它与随机跳转的分布相同，因此迭代中直接丢弃这部分，
+ * 解出的每个分量只差一个常数倍，输出时再把每个主题的向量归一化为总和1
+ */
+public class PersonalizedPageRank {
+  /** 种子文件的路径，设置后PageRankDriver计算个性化PageRank **/
+  public static final String SEEDS = "pagerank.personalized.seeds";
+  /** 主题名，按种子文件中的顺序 **/
+  public static final String TOPICS = "pagerank.personalized.topics";
+  /** 种子的 <id, 主题序号>，由prepare生成 **/
+  public static final String SEED_DIR = "pagerank.personalized.seed.dir";
+  /** 每个主题找到的种子网页数，逗号分隔 **/
+  public static final String SEED_SIZES = "pagerank.personalized.seed.sizes";
+
+  /** 读出种子文件，每个元素为 {主题名, 逗号分隔的title} **/
+  static List<String[]> readSeedFile(Configuration conf) throws IOException {
+    Path path = new Path(conf.get(SEEDS));
+    FileSystem fs = path.getFileSystem(conf);
+    List<String[]> topics = new ArrayList<String[]>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty())
+          continue;
+        int tab = line.indexOf('\t');
+        if (tab <= 0 || line.substring(0, tab).contains(","))
+          throw new IOException("invalid seed line: " + line);
+        topics.add(new String[] { line.substring(0, tab), line.substring(tab + 1) });
+      }
+    } finally {
+      reader.close();
+    }
+    return topics;
+  }
+
+  /** 读出所有种子，编码为 (id << 32 | 主题序号) 并排序 **/
+  static long[] loadSeeds(Configuration conf) throws IOException {
+    Path dir = new Path(conf.get(SEED_DIR));
+    FileSystem fs = dir.getFileSystem(conf);
+    long[] seeds = new long[64];
+    int size = 0;
+    IntWritable id = new IntWritable();
+    IntWritable topic = new IntWritable();
+    for (FileStatus file : fs.globStatus(new Path(dir, "part-*"))) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+      try {
+        while (reader.next(id, topic)) {
+          if (size == seeds.length)
+            seeds = Arrays.copyOf(seeds, size * 2);
+          seeds[size++] = (long) id.get() << 32 | topic.get();
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    seeds = Arrays.copyOf(seeds, size);
+    Arrays.sort(seeds);
+    return seeds;
+  }
+
+  /** 每个主题中一个种子网页分到的跳转概率，1 / 种子数 **/
+  static double[] seedShares(Configuration conf) {
+    String[] sizes = conf.getStrings(SEED_SIZES);
+    double[] shares = new double[sizes.length];
+    for (int t = 0; t < sizes.length; t++) {
+      long n = Long.parseLong(sizes[t]);
+      shares[t] = n == 0 ? 0 : 1.0 / n;
+    }
+    return shares;
+  }
+
+  /** 把网页id作为种子的各主题加上 weight / 种子数 **/
+  static void teleport(long[] seeds, double[] shares, int id, double weight,
+      PageVector vector) {
+    long first = (long) id << 32;
+    int i = Arrays.binarySearch(seeds, first);
+    if (i < 0)
+      i = -i - 1;
+    for (; i < seeds.length && (int) (seeds[i] >>> 32) == id; i++) {
+      int t = (int) seeds[i];
+      vector.addRank(t, weight * shares[t]);
+    }
+  }
+
+  /** 扫描字典，输出种子网页的 <id, 主题序号> **/
+  public static class SeedMapper extends
+      Mapper<IntWritable, Text, IntWritable, IntWritable> {
+    private Map<String, List<Integer>> topics = new HashMap<String, List<Integer>>();
+    private IntWritable topic = new IntWritable();
+
+    public void setup(Context context) throws IOException {
+      List<String[]> seedSets = readSeedFile(context.getConfiguration());
+      for (int t = 0; t < seedSets.size(); t++) {
+        for (String title : seedSets.get(t)[1].split(",")) {
+          title = title.trim();
+          if (title.isEmpty())
+            continue;
+          List<Integer> list = topics.get(title);
+          if (list == null) {
+            list = new ArrayList<Integer>();
+            topics.put(title, list);
+          }
+          if (!list.contains(t))
+            list.add(t);
+        }
+      }
+    }
+
+    public void map(IntWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      List<Integer> list = topics.get(value.toString());
+      if (list == null)
+        return;
+      for (int t : list) {
+        topic.set(t);
+        context.write(key, topic);
+      }
+    }
+  }
+
+  /** 把GraphBuilder输出的PageNode换成PageVector，初始向量为各主题的跳转分布 **/
+  public static class InitMapper extends
+      Mapper<IntWritable, PageNode, IntWritable, PageVector> {
+    private PageVector vector = new PageVector();
+    private long[] seeds;
+    private double[] shares;
+
+    public void setup(Context context) throws IOException {
+      seeds = loadSeeds(context.getConfiguration());
+      shares = seedShares(context.getConfiguration());
+    }
+
+    public void map(IntWritable key, PageNode value, Context context)
+        throws IOException, InterruptedException {
+      vector.setNode(key.get(), shares.length);
+      vector.setLinks(value);
+      teleport(seeds, shares, key.get(), 1.0, vector);
+      context.write(key, vector);
+    }
+  }
+
+  /** 对每个出链输出一份贡献向量，并把节点自身发给自己 **/
+  public static class VectorMapper extends
+      Mapper<IntWritable, PageVector, IntWritable, PageVector> {
+    private PageVector contribution = new PageVector();
+    private IntWritable link = new IntWritable();
+
+    public void map(IntWritable key, PageVector value, Context context)
+        throws IOException, InterruptedException {
+      int n = value.getLinkCount();
+      if (n > 0) {
+        int topics = value.getTopics();
+        contribution.setContribution(topics);
+        for (int t = 0; t < topics; t++)
+          contribution.setRank(t, value.getRank(t) / n);
+        for (int i = 0; i < n; i++) {
+          link.set(value.getLink(i));
+          context.write(link, contribution);
+        }
+      }
+      context.write(key, value);
+    }
+  }
+
+  /** 把发给同一网页的贡献向量相加，节点原样输出 **/
+  public static class VectorCombiner extends
+      Reducer<IntWritable, PageVector, IntWritable, PageVector> {
+    private PageVector sum = new PageVector();
+
+    public void reduce(IntWritable key, Iterable<PageVector> values, Context context)
+        throws IOException, InterruptedException {
+      boolean any = false;
+      for (PageVector value : values) {
+        if (value.isNode()) {
+          context.write(key, value);
+          continue;
+        }
+        if (!any)
+          sum.setContribution(value.getTopics());
+        any = true;
+        for (int t = 0; t < value.getTopics(); t++)
+          sum.addRank(t, value.getRank(t));
+      }
+      if (any)
+        context.write(key, sum);
+    }
+  }
+
+  /** 每个分量：新rank = 阻尼系数 * 贡献之和 + (1 - 阻尼系数) * 跳转到本网页的概率 **/
+  public static class VectorReducer extends
+      Reducer<IntWritable, PageVector, IntWritable, PageVector> {
+    private PageVector node = new PageVector();
+    private double[] old;
+    private long[] seeds;
+    private double[] shares;
+    private double damping;
+
+    public void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      seeds = loadSeeds(conf);
+      shares = seedShares(conf);
+      old = new double[shares.length];
+      damping = PageRankIter.damping(conf);
+    }
+
+    public void reduce(IntWritable key, Iterable<PageVector> values, Context context)
+        throws IOException, InterruptedException {
+      int topics = shares.length;
+      node.setNode(key.get(), topics);
+      Arrays.fill(old, 0);
+      for (PageVector value : values) {
+        if (value.isNode()) {
+          node.setLinks(value);
+          for (int t = 0; t < topics; t++)
+            old[t] = value.getRank(t);
+        } else {
+          for (int t = 0; t < topics; t++)
+            node.addRank(t, value.getRank(t));
+        }
+      }
+      double residual = 0;
+      for (int t = 0; t < topics; t++)
+        node.setRank(t, damping * node.getRank(t));
+      teleport(seeds, shares, key.get(), 1 - damping, node);
+      for (int t = 0; t < topics; t++)
+        residual += Math.abs(node.getRank(t) - old[t]);
+      context.write(key, node);
+      context.getCounter(PageRankIter.PageRankCounter.RESIDUAL).increment(
+          Math.round(residual * PageRankIter.COUNTER_SCALE));
+      context.getCounter(PageRankIter.PageRankCounter.PAGES).increment(1);
+    }
+  }
+
+  /**
+   * 每个mapper为每个主题保留rank最大的k个网页，并累加各主题的rank之和；
+   * cleanup时输出 <主题, 贡献消息(rank之和)> 和 <主题, 节点(id, rank)>
+   */
+  public static class SelectMapper extends
+      Mapper<IntWritable, PageVector, IntWritable, PageNode> {
+    private PageRankViewer.TopK[] top;
+    private double[] sums;
+
+    public void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      int topics = conf.getStrings(TOPICS).length;
+      int k = conf.getInt(PageRankViewer.TOP_K, 100);
+      top = new PageRankViewer.TopK[topics];
+      for (int t = 0; t < topics; t++)
+        top[t] = new PageRankViewer.TopK(k);
+      sums = new double[topics];
+    }
+
+    public void map(IntWritable key, PageVector value, Context context) {
+      for (int t = 0; t < top.length; t++) {
+        double rank = value.getRank(t);
+        if (rank <= 0)
+          continue;
+        top[t].offer(rank, key.get());
+        sums[t] += rank;
+      }
+    }
+
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      IntWritable topic = new IntWritable();
+      PageNode node = new PageNode();
+      for (int t = 0; t < top.length; t++) {
+        topic.set(t);
+        node.setContribution(sums[t]);
+        context.write(topic, node);
+        for (int i = 0; i < top[t].size(); i++) {
+          node.setNode(top[t].id(i), top[t].rank(i));
+          context.write(topic, node);
+        }
+      }
+    }
+  }
+
+  /** 合并每个主题的前k个，rank除以该主题的rank总和，输出 <主题, 节点(id, rank)> **/
+  public static class SelectReducer extends
+      Reducer<IntWritable, PageNode, IntWritable, PageNode> {
+    private int k;
+    private PageNode node = new PageNode();
+
+    public void setup(Context context) {
+      k = context.getConfiguration().getInt(PageRankViewer.TOP_K, 100);
+    }
+
+    public void reduce(IntWritable key, Iterable<PageNode> values, Context context)
+        throws IOException, InterruptedException {
+      PageRankViewer.TopK top = new PageRankViewer.TopK(k);
+      double sum = 0;
+      for (PageNode value : values) {
+        if (value.isNode())
+          top.offer(value.getRank(), value.getId());
+        else
+          sum += value.getRank();
+      }
+      for (int i = 0; i < top.size(); i++) {
+        node.setNode(top.id(i), top.rank(i) / sum);
+        context.write(key, node);
+      }
+    }
+  }
+
+  /** 扫描字典，为选出的网页找回title，输出 <主题, "rank\ttitle"> **/
+  public static class TitleMapper extends
+      Mapper<IntWritable, Text, IntWritable, Text> {
+    private Map<Integer, List<PageNode>> selected = new HashMap<Integer, List<PageNode>>();
+    private IntWritable topic = new IntWritable();
+    private Text line = new Text();
+
+    public void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      Path path = new Path(conf.get(PageRankViewer.TOP_K_FILE));
+      FileSystem fs = path.getFileSystem(conf);
+      IntWritable t = new IntWritable();
+      for (FileStatus file : fs.globStatus(new Path(path, "part-*"))) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+        try {
+          PageNode node = new PageNode();
+          while (reader.next(t, node)) {
+            List<PageNode> list = selected.get(node.getId());
+            if (list == null) {
+              list = new ArrayList<PageNode>();
+              selected.put(node.getId(), list);
+            }
+            // 编号存放主题序号
+            node.setId(t.get());
+            list.add(node);
+            node = new PageNode();
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    }
+
+    public void map(IntWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      List<PageNode> list = selected.get(key.get());
+      if (list == null)
+        return;
+      for (PageNode node : list) {
+        topic.set(node.getId());
+        line.set(node.getRank() + "\t" + value);
+        context.write(topic, line);
+      }
+    }
+  }
+
+  /** 每个主题按rank从大到小输出 主题名\trank\ttitle **/
+  public static class TitleReducer extends Reducer<IntWritable, Text, Text, Text> {
+    private String[] topics;
+    private Text name = new Text();
+    private Text line = new Text();
+
+    public void setup(Context context) {
+      topics = context.getConfiguration().getStrings(TOPICS);
+    }
+
+    public void reduce(IntWritable key, Iterable<Text> values, Context context)
+        throws IOException, InterruptedException {
+      List<String> lines = new ArrayList<String>();
+      for (Text value : values)
+        lines.add(value.toString());
+      Collections.sort(lines, new Comparator<String>() {
+        public int compare(String a, String b) {
+          return Double.compare(rank(b), rank(a));
+        }
+      });
+      name.set(topics[key.get()]);
+      for (String s : lines) {
+        line.set(s);
+        context.write(name, line);
+      }
+    }
+
+    private static double rank(String line) {
+      return Double.parseDouble(line.substring(0, line.indexOf('\t')));
+    }
+  }
+
+  /**
+   * 在字典中找出种子网页，并把图换成初始的向量形式（原地替换graph目录），
+   * 种子写到seedDir；结束后conf中有主题名、种子目录和每个主题的种子数
+   */
+  public static boolean prepare(Configuration conf, Path graph, Path dictionary,
+      Path seedDir) throws Exception {
+    List<String[]> seedSets = readSeedFile(conf);
+    if (seedSets.isEmpty())
+      throw new IOException("no seed sets in " + conf.get(SEEDS));
+    String[] names = new String[seedSets.size()];
+    for (int t = 0; t < names.length; t++)
+      names[t] = seedSets.get(t)[0];
+    conf.setStrings(TOPICS, names);
+    conf.set(SEED_DIR, seedDir.toString());
+
+    Job seeds = new Job(conf, "PersonalizedPageRank Seeds");
+    seeds.setJarByClass(PersonalizedPageRank.class);
+    seeds.setOutputKeyClass(IntWritable.class);
+    seeds.setOutputValueClass(IntWritable.class);
+    seeds.setMapperClass(SeedMapper.class);
+    seeds.setNumReduceTasks(0);
+    seeds.setInputFormatClass(SequenceFileInputFormat.class);
+    seeds.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.addInputPath(seeds, dictionary);
+    FileOutputFormat.setOutputPath(seeds, seedDir);
+    if (!seeds.waitForCompletion(true))
+      return false;
+
+    long[] found = loadSeeds(conf);
+    long[] sizes = new long[names.length];
+    for (long seed : found)
+      sizes[(int) seed]++;
+    String[] sizeStrings = new String[names.length];
+    for (int t = 0; t < names.length; t++) {
+      sizeStrings[t] = String.valueOf(sizes[t]);
+      System.out.println("topic " + names[t] + ": " + sizes[t] + " seed pages");
+    }
+    conf.setStrings(SEED_SIZES, sizeStrings);
+
+    Path vectors = new Path(graph + "_vector");
+    Job init = new Job(conf, "PersonalizedPageRank Init");
+    init.setJarByClass(PersonalizedPageRank.class);
+    init.setOutputKeyClass(IntWritable.class);
+    init.setOutputValueClass(PageVector.class);
+    init.setMapperClass(InitMapper.class);
+    init.setNumReduceTasks(0);
+    init.setInputFormatClass(SequenceFileInputFormat.class);
+    init.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.addInputPath(init, graph);
+    FileOutputFormat.setOutputPath(init, vectors);
+    if (!init.waitForCompletion(true))
+      return false;
+    FileSystem fs = graph.getFileSystem(conf);
+    fs.delete(graph, true);
+    return fs.rename(vectors, graph);
+  }
+
+  /** 运行一次迭代，返回已完成的job，可从中读取计数器 **/
+  public static Job run(Configuration conf, Path input, Path output)
+      throws Exception {
+    Job job = new Job(conf, "PersonalizedPageRank");
+    job.setJarByClass(PersonalizedPageRank.class);
+    job.setOutputKeyClass(IntWritable.class);
+    job.setOutputValueClass(PageVector.class);
+    job.setMapperClass(VectorMapper.class);
+    job.setCombinerClass(VectorCombiner.class);
+    job.setReducerClass(VectorReducer.class);
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.addInputPath(job, input);
+    FileOutputFormat.setOutputPath(job, output);
+    job.waitForCompletion(true);
+    return job;
+  }
+
+  /**
+   * PersonalizedPageRank.view <rank input> <dictionary> <output>：每个主题输出rank最大的
+   * {@value PageRankViewer#TOP_K} 个网页（默认100个），rank已归一化
+   */
+  public static boolean view(Configuration conf, String[] args) throws Exception {
+    Path selected = new Path(args[2] + "_topk");
+    Job select = new Job(conf, "PersonalizedPageRank TopK");
+    select.setJarByClass(PersonalizedPageRank.class);
+    select.setOutputKeyClass(IntWritable.class);
+    select.setOutputValueClass(PageNode.class);
+    select.setMapperClass(SelectMapper.class);
+    select.setReducerClass(SelectReducer.class);
+    select.setInputFormatClass(SequenceFileInputFormat.class);
+    select.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileInputFormat.addInputPath(select, new Path(args[0]));
+    FileOutputFormat.setOutputPath(select, selected);
+    if (!select.waitForCompletion(true))
+      return false;
+
+    Configuration titleConf = new Configuration(conf);
+    titleConf.set(PageRankViewer.TOP_K_FILE, selected.toString());
+    Job titles = new Job(titleConf, "PersonalizedPageRank Titles");
+    titles.setJarByClass(PersonalizedPageRank.class);
+    titles.setMapOutputKeyClass(IntWritable.class);
+    titles.setMapOutputValueClass(Text.class);
+    titles.setOutputKeyClass(Text.class);
+    titles.setOutputValueClass(Text.class);
+    titles.setMapperClass(TitleMapper.class);
+    titles.setReducerClass(TitleReducer.class);
+    titles.setNumReduceTasks(1);
+    titles.setInputFormatClass(SequenceFileInputFormat.class);
+    FileInputFormat.addInputPath(titles, new Path(args[1]));
+    FileOutputFormat.setOutputPath(titles, new Path(args[2]));
+    boolean success = titles.waitForCompletion(true);
+    selected.getFileSystem(conf).delete(selected, true);
+    return success;
+  }
+}
@@ -0,0 +1,162 @@
+package CH8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * 按 &lt;page&gt; ... &lt;/page&gt; 切分Wikipedia的XML dump，每条记录是一个完整的page元素，
+ * key为它在文件中的偏移。
+ * <p>
+ * 起始标签在本split内的page属于本split，即使结束标签在下一个split中；下一个split跳过
+ * 它开头不完整的page。压缩的dump不能切分，整个文件由一个mapper读取
+ */
+public class XmlPageInputFormat extends FileInputFormat<LongWritable, Text> {
+  private static final byte[] START_TAG = "<page>".getBytes();
+  private static final byte[] END_TAG = "</page>".getBytes();
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+      TaskAttemptContext context) {
+    return new XmlPageRecordReader();
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+  }
+
+  /** 自己维护读缓冲区逐字节匹配标签，page的内容直接追加到可重用的数组中 **/
+  public static class XmlPageRecordReader extends RecordReader<LongWritable, Text> {
+    private FSDataInputStream fileIn;
+    private InputStream in;
+    private long start;
+    private long end;
+    private long pos;
+    private byte[] buffer = new byte[64 * 1024];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    private byte[] record = new byte[64 * 1024];
+    private int recordLength;
+    private LongWritable key = new LongWritable();
+    private Text value = new Text();
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+        throws IOException {
+      FileSplit split = (FileSplit) genericSplit;
+      Configuration conf = context.getConfiguration();
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(conf);
+      fileIn = fs.open(file);
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+      if (codec != null) {
+        in = codec.createInputStream(fileIn);
+        start = 0;
+        end = Long.MAX_VALUE;
+      } else {
+        start = split.getStart();
+        end = start + split.getLength();
+        fileIn.seek(start);
+        in = fileIn;
+      }
+      pos = start;
+    }
+
+    private int read() throws IOException {
+      if (bufferPos == bufferLength) {
+        bufferLength = in.read(buffer);
+        bufferPos = 0;
+        if (bufferLength <= 0) {
+          bufferLength = 0;
+          return -1;
+        }
+      }
+      pos++;
+      return buffer[bufferPos++] & 0xFF;
+    }
+
+    private void append(int b) {
+      if (recordLength == record.length)
+        record = Arrays.copyOf(record, recordLength * 2);
+      record[recordLength++] = (byte) b;
+    }
+
+    /**
+     * 读到tag为止，inRecord时把读过的字节追加到record中；
+     * 不在page内且已越过split末尾时停止。标签的首字符在标签中不重复出现，失配时只需重新比较首字符
+     */
+    private boolean readUntil(byte[] tag, boolean inRecord) throws IOException {
+      int matched = 0;
+      while (true) {
+        if (!inRecord && matched == 0 && pos >= end)
+          return false;
+        int b = read();
+        if (b < 0)
+          return false;
+        if (inRecord)
+          append(b);
+        if (b == tag[matched]) {
+          if (++matched == tag.length)
+            return true;
+        } else {
+          matched = b == tag[0] ? 1 : 0;
+        }
+      }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      if (!readUntil(START_TAG, false))
+        return false;
+      key.set(pos - START_TAG.length);
+      recordLength = 0;
+      for (byte b : START_TAG)
+        append(b);
+      if (!readUntil(END_TAG, true))
+        return false;
+      value.set(record, 0, recordLength);
+      return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+      return value;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      if (end == Long.MAX_VALUE)
+        return 0.0f;
+      if (start == end)
+        return 0.0f;
+      return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null)
+        in.close();
+    }
+  }
+}